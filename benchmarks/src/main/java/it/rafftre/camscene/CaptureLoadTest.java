@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Captures a growing number of synthetic feeds, each camera on a thread of its own and then on the
+ * {@link CaptureEngine}, and prints the throughput and the jitter of the feeds at every step. Not a JMH benchmark:
+ * run it with
+ * <pre>
+ * java -cp target/benchmarks.jar it.rafftre.camscene.CaptureLoadTest --feeds=10,20,30,50 --threads=4
+ * </pre>
+ * The other options are <code>--size</code> (640x480 by default), <code>--rate</code> (25 fps by default) and
+ * <code>--seconds</code> measured after one second of warm up (10 by default).
+ */
+public final class CaptureLoadTest {
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> params = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (arg.startsWith("--") && separator > 2) {
+                params.put(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+        }
+        String size = getOrDefault(params, "size", "640x480");
+        int width = SyntheticFrames.parseWidth(size);
+        int height = SyntheticFrames.parseHeight(size);
+        int rate = Integer.parseInt(getOrDefault(params, "rate", "25"));
+        int engineThreads = Integer.parseInt(getOrDefault(params, "threads",
+                Integer.toString(Runtime.getRuntime().availableProcessors())));
+        int seconds = Integer.parseInt(getOrDefault(params, "seconds", "10"));
+
+        System.out.printf("Synthetic feeds of %s at %d fps, %d engine threads, %d processors%n%n",
+                size, rate, engineThreads, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-8s %6s %8s %10s %10s %12s %12s %8s%n",
+                "mode", "feeds", "threads", "fps", "min fps", "jitter p99", "jitter max", "cpu");
+        for (String feeds : getOrDefault(params, "feeds", "10,20,30,50").split(",")) {
+            int feedCount = Integer.parseInt(feeds.trim());
+            run("threads", 0, feedCount, width, height, rate, seconds);
+            run("engine", engineThreads, feedCount, width, height, rate, seconds);
+        }
+    }
+
+    private static void run(String mode, int engineThreads, int feedCount, int width, int height, int rate,
+                            int seconds) throws InterruptedException {
+        CaptureService captureService = new CaptureService(engineThreads);
+        List<CameraSession> sessions = new ArrayList<>();
+        for (int i = 0; i < feedCount; i++) {
+            CameraInfo camera = new CameraInfo(new SyntheticFrameSource("feed-" + i, width, height));
+            camera.setFrameRate(rate);
+            CameraSession session = new CameraSession(camera);
+            session.setDisplayed(false);
+            sessions.add(session);
+            captureService.start(session);
+        }
+
+        // warm up
+        Thread.sleep(1000);
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+        long[] startFrames = new long[feedCount];
+        for (int i = 0; i < feedCount; i++) {
+            startFrames[i] = sessions.get(i).getStats().getFrames();
+        }
+        long startCpu = getProcessCpuTime();
+        long start = System.nanoTime();
+
+        // the jitter is the one of the last one second window of every feed, sampled every second
+        long[] jitters = new long[feedCount * seconds];
+        for (int s = 0; s < seconds; s++) {
+            Thread.sleep(1000);
+            for (int i = 0; i < feedCount; i++) {
+                jitters[s * feedCount + i] = sessions.get(i).getStats().getJitterP99Micros();
+            }
+        }
+
+        double elapsed = (double) (System.nanoTime() - start) / Util.ONE_SECOND_IN_NANOS;
+        long cpu = getProcessCpuTime() - startCpu;
+        long frames = 0;
+        double minFrameRate = Double.MAX_VALUE;
+        for (int i = 0; i < feedCount; i++) {
+            long feedFrames = sessions.get(i).getStats().getFrames() - startFrames[i];
+            frames += feedFrames;
+            minFrameRate = Math.min(minFrameRate, feedFrames / elapsed);
+        }
+        Arrays.sort(jitters);
+
+        captureService.stopAll(Util.SESSION_CLOSE_TIMEOUT_MS * 5);
+        captureService.shutdown();
+        // lets the threads of the service end before the next run counts them
+        Thread.sleep(500);
+
+        System.out.printf("%-8s %6d %8d %10.1f %10.1f %9d us %9d us %7s%n",
+                mode, feedCount, threads, frames / elapsed, minFrameRate,
+                jitters[(int) (jitters.length * 0.99)], jitters[jitters.length - 1],
+                cpu >= 0 ? String.format("%.0f%%", cpu / 10000000.0 / elapsed) : "n/a");
+    }
+
+    /**
+     * The processor time of the process in nanoseconds, or -1 if it is not known.
+     */
+    private static long getProcessCpuTime() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    private static String getOrDefault(Map<String, String> params, String name, String defaultValue) {
+        String value = params.get(name);
+        return value != null ? value : defaultValue;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import javafx.embed.swing.JFXPanel;
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures every step between the raw RGB data of a grabbed frame and the JavaFX image shown on screen.
+ * The JavaFX benchmarks start the toolkit, so they need a display (e.g. <code>xvfb-run</code> on a server).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FramePipelineBenchmark {
+
+    static final int DISPLAY_WIDTH = 480;
+
+    @Param({"640x480", "1280x720", "1920x1080", "3840x2160"})
+    public String size;
+
+    private int width;
+    private int height;
+    private byte[] rgbData;
+    private int[] argbData;
+    private FrameConverter.ScaleMap displayScaleMap;
+    private int[] displayArgbData;
+    private BufferedImage renderingImage;
+    private WritableImage fxImage;
+
+    @Setup
+    public void setup() {
+        width = SyntheticFrames.parseWidth(size);
+        height = SyntheticFrames.parseHeight(size);
+        rgbData = SyntheticFrames.createRgbData(width, height);
+        argbData = new int[width * height];
+        // a pane 480 pixels wide
+        int displayHeight = height * DISPLAY_WIDTH / width;
+        displayScaleMap = new FrameConverter.ScaleMap(width, height, DISPLAY_WIDTH, displayHeight);
+        displayArgbData = new int[DISPLAY_WIDTH * displayHeight];
+        renderingImage = Util.getRenderingBufferedImage(rgbData, width, height, null);
+
+        // starts the JavaFX toolkit
+        new JFXPanel();
+        fxImage = new WritableImage(width, height);
+    }
+
+    @Benchmark
+    public int[] addAlphaChannel() {
+        FrameConverter.addAlphaChannel(rgbData, rgbData.length, argbData);
+        return argbData;
+    }
+
+    @Benchmark
+    public int[] convertFrame() {
+        FrameConverter.convert(rgbData, argbData, width, height);
+        return argbData;
+    }
+
+    @Benchmark
+    public int[] scaleFrameToDisplay() {
+        FrameConverter.scale(rgbData, displayScaleMap, displayArgbData);
+        return displayArgbData;
+    }
+
+    @Benchmark
+    public BufferedImage getRenderingBufferedImage() {
+        return Util.getRenderingBufferedImage(rgbData, width, height, null);
+    }
+
+    @Benchmark
+    public BufferedImage getRenderingBufferedImagePooled() {
+        return Util.getRenderingBufferedImage(rgbData, width, height, renderingImage);
+    }
+
+    @Benchmark
+    public WritableImage toFXImage() {
+        return SwingFXUtils.toFXImage(renderingImage, null);
+    }
+
+    @Benchmark
+    public WritableImage toFXImageReused() {
+        return SwingFXUtils.toFXImage(renderingImage, fxImage);
+    }
+
+    @Benchmark
+    public WritableImage writeRgbPixels() {
+        fxImage.getPixelWriter().setPixels(0, 0, width, height,
+                PixelFormat.getByteRgbInstance(), rgbData, 0, width * 3);
+        return fxImage;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.embed.swing.JFXPanel;
+import javafx.scene.Scene;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.StackPane;
+import javafx.stage.Stage;
+
+import java.awt.Dimension;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shows a synthetic feed in a window and prints the latency from the capture of its frames to their display, as
+ * measured by a {@link LatencyProbe}. Not a JMH benchmark: run it on a display, or under <code>xvfb-run</code>, with
+ * <pre>
+ * java -cp target/benchmarks.jar it.rafftre.camscene.LatencyBenchmark --render=tiles
+ * </pre>
+ * The other options are <code>--size</code> (640x480 by default), <code>--display</code> to scale the frames down
+ * while grabbed, <code>--rate</code> (25 fps by default), <code>--seconds</code> measured after two seconds of warm
+ * up (10 by default) and <code>--maxP99</code>, in milliseconds, to exit with an error when the 99th percentile is
+ * above it.
+ */
+public final class LatencyBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> params = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (arg.startsWith("--") && separator > 2) {
+                params.put(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+        }
+        String size = getOrDefault(params, "size", "640x480");
+        int rate = Integer.parseInt(getOrDefault(params, "rate", "25"));
+        RenderMode renderMode = RenderMode.fromString(getOrDefault(params, "render", RenderMode.DIRECT.name()));
+        int seconds = Integer.parseInt(getOrDefault(params, "seconds", "10"));
+        String display = params.get("display");
+        long maxP99 = Long.parseLong(getOrDefault(params, "maxP99", "0"));
+
+        // starts the JavaFX toolkit
+        new JFXPanel();
+        Platform.setImplicitExit(false);
+
+        int width = SyntheticFrames.parseWidth(size);
+        int height = SyntheticFrames.parseHeight(size);
+        CameraInfo camera = new CameraInfo(new SyntheticFrameSource("latency", width, height));
+        camera.setViewSize(new Dimension(width, height));
+        if (display != null) {
+            camera.setDisplaySize(new Dimension(SyntheticFrames.parseWidth(display),
+                    SyntheticFrames.parseHeight(display)));
+        }
+        camera.setFrameRate(rate);
+        camera.setRenderMode(renderMode);
+        final CameraSession session = new CameraSession(camera);
+        final LatencyProbe probe = new LatencyProbe();
+        final Display shown = new Display(session, probe);
+
+        CaptureService captureService = new CaptureService();
+        captureService.start(session);
+        Platform.runLater(shown);
+
+        // warm up
+        Thread.sleep(2000);
+        runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                probe.reset();
+            }
+        });
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+
+        final IntervalHistogram latencies = new IntervalHistogram();
+        final long[] undecodedFrames = new long[1];
+        runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                probe.getLatencies().copyTo(latencies);
+                undecodedFrames[0] = probe.getUndecodedFrames();
+                shown.close();
+            }
+        });
+
+        captureService.stopAll(Util.SESSION_CLOSE_TIMEOUT_MS);
+        captureService.shutdown();
+        Platform.exit();
+
+        System.out.printf("Synthetic feed of %s%s at %d fps, render %s%n%n", size,
+                display != null ? " shown at " + display : "", rate, renderMode.name().toLowerCase());
+        System.out.printf("%8s %10s %8s %8s %8s %8s %8s%n",
+                "frames", "undecoded", "mean", "p50", "p90", "p99", "max");
+        System.out.printf("%8d %10d %5.1f ms %5d ms %5d ms %5d ms %5d ms%n",
+                latencies.getCount(), undecodedFrames[0], latencies.getMean() / 1000000.0,
+                TimeUnit.NANOSECONDS.toMillis(latencies.getPercentile(50)),
+                TimeUnit.NANOSECONDS.toMillis(latencies.getPercentile(90)),
+                TimeUnit.NANOSECONDS.toMillis(latencies.getPercentile(99)),
+                TimeUnit.NANOSECONDS.toMillis(latencies.getMax()));
+
+        if (latencies.getCount() == 0) {
+            System.err.println("No frame shown could be decoded: is the display size too small?");
+            System.exit(1);
+        }
+        if (maxP99 > 0 && TimeUnit.NANOSECONDS.toMillis(latencies.getPercentile(99)) > maxP99) {
+            System.err.printf("The 99th percentile is above %d ms%n", maxP99);
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private static void runAndWait(final Runnable runnable) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        Platform.runLater(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runnable.run();
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        done.await();
+    }
+
+    private static String getOrDefault(Map<String, String> params, String name, String defaultValue) {
+        String value = params.get(name);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * Shows the frames through the {@link SessionDisplay} of the application, updated on every pulse.
+     */
+    private static final class Display extends AnimationTimer implements Runnable {
+
+        private final ImageView view = new ImageView();
+        private final SessionDisplay display;
+        private Stage stage;
+
+        Display(CameraSession session, LatencyProbe probe) {
+            display = new SessionDisplay(session, view.imageProperty(), new SimpleStringProperty(), null);
+            display.setLatencyProbe(probe);
+        }
+
+        @Override
+        public void run() {
+            stage = new Stage();
+            stage.setTitle("LatencyBenchmark");
+            stage.setScene(new Scene(new StackPane(view)));
+            stage.show();
+            start();
+        }
+
+        @Override
+        public void handle(long now) {
+            display.update(now);
+        }
+
+        void close() {
+            stop();
+            stage.close();
+        }
+    }
+}
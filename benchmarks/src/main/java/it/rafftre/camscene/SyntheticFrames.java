@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import java.util.Random;
+
+/**
+ * Builds the raw RGB data of a video frame without a camera.
+ */
+final class SyntheticFrames {
+
+    private SyntheticFrames() {
+    }
+
+    public static int parseWidth(String size) {
+        return Integer.parseInt(size.substring(0, size.indexOf('x')));
+    }
+
+    public static int parseHeight(String size) {
+        return Integer.parseInt(size.substring(size.indexOf('x') + 1));
+    }
+
+    public static byte[] createRgbData(int width, int height) {
+        byte[] rgbData = new byte[width * height * 3];
+        new Random(width * 31L + height).nextBytes(rgbData);
+        return rgbData;
+    }
+}
@@ -23,39 +23,48 @@
 package it.rafftre.camscene;
 
 import com.sleepingdumpling.jvideoinput.Device;
-import com.sleepingdumpling.jvideoinput.VideoFrame;
-import com.sleepingdumpling.jvideoinput.VideoInput;
-import com.sleepingdumpling.jvideoinput.VideoInputException;
 
 import java.awt.*;
-import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 
 final class CameraInfo {
 
-    private Device device;
+    private final FrameSource source;
     private Dimension viewSize;
     private int frameRate;
-    private VideoInput videoInput;
+    private RenderMode renderMode = RenderMode.DIRECT;
+    private volatile Dimension displaySize;
+    private volatile double displayScale = 1;
+    private CameraStats stats;
+    private volatile FrameRecorder recorder;
+    private volatile ReplayBuffer replayBuffer;
+    private volatile FeedAnalyzer analyzer;
+    private volatile PreviewServer.Stream previewStream;
+    private volatile SnapshotExporter.Burst burst;
+    private FramePool framePool;
+    private FrameConverter.ScaleMap scaleMap;
+    private ByteBuffer wrappedData;
+    private TileDiff tileDiff;
+    private long tileSequence;
+    private int[] argbBuffer;
 
     public CameraInfo(Device device) {
-        this.device = device;
-        this.viewSize = new Dimension(Util.DEFAULT_VIDEO_WIDTH, Util.DEFAULT_VIDEO_HEIGHT);
-        this.frameRate = Util.DEFAULT_VIDEO_FPS;
+        this(new DeviceFrameSource(device));
     }
 
-    public CameraInfo() {
+    public CameraInfo(FrameSource source) {
+        this.source = source;
+        this.viewSize = new Dimension(Util.DEFAULT_VIDEO_WIDTH, Util.DEFAULT_VIDEO_HEIGHT);
+        this.frameRate = Util.DEFAULT_VIDEO_FPS;
     }
 
     public String getName() {
-        return device.getNameStr();
-    }
-
-    public Device getDevice() {
-        return device;
+        return source.getName();
     }
 
-    public void setDevice(Device device) {
-        this.device = device;
+    public FrameSource getSource() {
+        return source;
     }
 
     public Dimension getViewSize() {
@@ -74,38 +83,325 @@ final class CameraInfo {
         this.frameRate = frameRate;
     }
 
-    public void open() throws VideoInputException {
-        if (videoInput != null) {
-            return;
-        }
+    public RenderMode getRenderMode() {
+        return renderMode;
+    }
+
+    public void setRenderMode(RenderMode renderMode) {
+        this.renderMode = renderMode;
+    }
+
+    public Dimension getDisplaySize() {
+        return displaySize;
+    }
+
+    /**
+     * Sets the size at which the frames will be shown: when it is smaller than the view size the frames are
+     * scaled down to fit in it while grabbed. A <code>null</code> value means full size.
+     */
+    public void setDisplaySize(Dimension displaySize) {
+        this.displaySize = displaySize;
+    }
+
+    public CameraStats getStats() {
+        return stats;
+    }
+
+    public void setStats(CameraStats stats) {
+        this.stats = stats;
+    }
+
+    public FrameRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * Sets the recorder to which every grabbed frame is handed, at full size; <code>null</code> stops recording.
+     */
+    public void setRecorder(FrameRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    public ReplayBuffer getReplayBuffer() {
+        return replayBuffer;
+    }
+
+    /**
+     * Sets the ring in which every grabbed frame is kept, at full size, for the instant replay.
+     */
+    public void setReplayBuffer(ReplayBuffer replayBuffer) {
+        this.replayBuffer = replayBuffer;
+    }
+
+    public FeedAnalyzer getAnalyzer() {
+        return analyzer;
+    }
+
+    /**
+     * Sets the analyzer watching the grabbed frames for a frozen or black feed.
+     */
+    public void setAnalyzer(FeedAnalyzer analyzer) {
+        this.analyzer = analyzer;
+    }
+
+    public PreviewServer.Stream getPreviewStream() {
+        return previewStream;
+    }
+
+    /**
+     * Sets the stream to which every grabbed frame is offered, at full size, for the clients of the preview server.
+     */
+    public void setPreviewStream(PreviewServer.Stream previewStream) {
+        this.previewStream = previewStream;
+    }
+
+    public SnapshotExporter.Burst getBurst() {
+        return burst;
+    }
+
+    /**
+     * Sets the snapshot or burst taking the next grabbed frames, at full size; it is unset once it has them all.
+     */
+    public void setBurst(SnapshotExporter.Burst burst) {
+        this.burst = burst;
+    }
 
-        videoInput = new VideoInput(viewSize.width, viewSize.height, frameRate, device);
+    public void open() throws IOException {
+        source.open(viewSize.width, viewSize.height, frameRate);
     }
 
     public void close() {
-        if (videoInput == null) {
+        source.close();
+    }
+
+    /**
+     * Drops the frames kept for the conversion, once no more frames are converted.
+     */
+    public void releaseFrames() {
+        if (framePool != null) {
+            framePool.clear();
+            framePool = null;
+        }
+        tileDiff = null;
+        argbBuffer = null;
+    }
+
+    public double getDisplayScale() {
+        return displayScale;
+    }
+
+    /**
+     * Sets the factor, at most 1, by which the frames are scaled further down from the display size, to lower the
+     * cost of converting and rendering them.
+     */
+    public void setDisplayScale(double displayScale) {
+        this.displayScale = Math.max(0.1, Math.min(1, displayScale));
+    }
+
+    /**
+     * Grabs a frame, for the taps and the conversion.
+     *
+     * @param target where the frame is set, <code>null</code> if it is dropped
+     * @param copy whether the frame bytes are copied in the target, for the taps and the conversion on another
+     * thread
+     * @return whether a frame has been grabbed
+     */
+    public boolean grab(RawFrame target, boolean copy) {
+        if (!source.isOpen()) {
+            return false;
+        }
+
+        long start = System.nanoTime();
+        boolean grabbed = source.grab();
+        long grabTime = System.nanoTime();
+        if (stats != null) {
+            stats.getGrabTimer().record(start, grabTime);
+        }
+        if (!grabbed) {
+            return false;
+        }
+
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (width != viewSize.width || height != viewSize.height) {
+            // the device has negotiated a size different from the requested one
+            viewSize = new Dimension(width, height);
+        }
+
+        // read the frame in place when the source can, else through the array it fills
+        int length = width * height * 3;
+        ByteBuffer rgbData = source.getBuffer();
+        if (rgbData == null) {
+            byte[] rawData = source.getData();
+            if (rawData != null && rawData.length == length) {
+                if (wrappedData == null || wrappedData.array() != rawData) {
+                    wrappedData = ByteBuffer.wrap(rawData);
+                }
+                rgbData = wrappedData;
+            }
+        } else if (rgbData.capacity() < length) {
+            rgbData = null;
+        }
+
+        if (target != null) {
+            if (rgbData != null) {
+                target.setData(rgbData, width, height, copy);
+            } else {
+                // not a packed RGB frame: take the slow path, at full size
+                target.setImage(source.getBufferedImage(), width, height);
+            }
+            target.setTimestamp(grabTime);
+            target.setWallTime(System.currentTimeMillis());
+        }
+        return true;
+    }
+
+    /**
+     * Hands a grabbed frame to the recorder, the replay and the other taps, at full size.
+     */
+    public void tap(RawFrame frame) {
+        ByteBuffer rgbData = frame.getData();
+        if (rgbData == null) {
+            // the taps take packed RGB frames only
             return;
         }
 
-        videoInput.stopSession();
-        videoInput = null;
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        FrameRecorder frameRecorder = recorder;
+        if (frameRecorder != null) {
+            frameRecorder.record(rgbData, width, height, frameRate, frame.getWallTime());
+        }
+        ReplayBuffer replay = replayBuffer;
+        if (replay != null) {
+            replay.add(rgbData, width, height, frame.getTimestamp());
+        }
+        PreviewServer.Stream preview = previewStream;
+        if (preview != null) {
+            preview.offer(rgbData, width, height);
+        }
+        SnapshotExporter.Burst snapshot = burst;
+        if (snapshot != null && !snapshot.offer(rgbData, width, height) && burst == snapshot) {
+            burst = null;
+        }
+        FeedAnalyzer feedAnalyzer = analyzer;
+        if (feedAnalyzer != null) {
+            feedAnalyzer.analyze(rgbData, width, height, frame.getTimestamp());
+        }
     }
 
-    public BufferedImage grabFrame() {
-        if (videoInput == null) {
-            return null;
+    /**
+     * Converts a grabbed frame for the display, scaling it down to the display size.
+     *
+     * @return the frame, or <code>null</code> if every frame is still waiting to be displayed or, in the
+     * {@link RenderMode#TILES} mode, if nothing has changed since the previous frame
+     */
+    public Frame convertFrame(RawFrame rawFrame) {
+        long start = System.nanoTime();
+        int width = rawFrame.getWidth();
+        int height = rawFrame.getHeight();
+        ByteBuffer rgbData = rawFrame.getData();
+
+        int frameWidth = width;
+        int frameHeight = height;
+        Dimension size = displaySize;
+        int maxWidth = size != null && size.width > 0 ? size.width : width;
+        int maxHeight = size != null && size.height > 0 ? size.height : height;
+        double reduction = displayScale;
+        if (reduction < 1) {
+            maxWidth = Math.max(1, (int) (maxWidth * reduction));
+            maxHeight = Math.max(1, (int) (maxHeight * reduction));
+        }
+        if (maxWidth < width || maxHeight < height) {
+            // fit in the display size keeping the aspect ratio
+            double scale = Math.min((double) maxWidth / width, (double) maxHeight / height);
+            frameWidth = Math.min(width, Math.max(1, (int) Math.round(width * scale)));
+            frameHeight = Math.min(height, Math.max(1, (int) Math.round(height * scale)));
+        }
+        boolean scaled = frameWidth != width || frameHeight != height;
+        if (scaled && (scaleMap == null || !scaleMap.matches(width, height, frameWidth, frameHeight))) {
+            scaleMap = new FrameConverter.ScaleMap(width, height, frameWidth, frameHeight);
         }
 
-        VideoFrame vf = videoInput.getNextFrame(null);
-        if (vf == null) {
+        if (framePool == null || frameWidth != framePool.getWidth() || frameHeight != framePool.getHeight()) {
+            if (framePool != null) {
+                framePool.clear();
+            }
+            framePool = new FramePool(frameWidth, frameHeight, Util.FRAME_POOL_SIZE, renderMode);
+        }
+
+        Frame frame = framePool.acquire();
+        if (frame == null) {
+            // every frame is still waiting to be displayed
+            if (stats != null) {
+                stats.frameUnbuffered();
+            }
             return null;
         }
+        frame.setTimestamp(rawFrame.getTimestamp());
+        frame.setSourceSize(width, height);
+
+        if (rgbData == null) {
+            frame.setImage(rawFrame.getImage());
+        } else if (frame.getChangedTiles() != null) {
+            if (tileDiff == null || !tileDiff.matches(frameWidth, frameHeight)) {
+                tileDiff = new TileDiff(frameWidth, frameHeight, Util.RENDER_TILE_SIZE, Util.TILE_CHANGE_THRESHOLD);
+            }
+            int changedTiles;
+            if (scaled) {
+                FrameConverter.scale(rgbData, scaleMap, frame.getArgbData());
+                changedTiles = tileDiff.compare(frame.getArgbData(), frame.getChangedTiles());
+            } else {
+                changedTiles = tileDiff.convert(rgbData, frame.getArgbData(), frame.getChangedTiles());
+            }
+            if (stats != null) {
+                stats.tilesCompared(tileDiff.getTileCount(), changedTiles);
+            }
+
+            if (changedTiles == 0) {
+                frame.recycle();
+                frame = null;
+            } else {
+                frame.setChangedTiles(tileDiff, changedTiles, ++tileSequence);
+            }
+        } else if (frame.getRgbData() != null) {
+            if (scaled) {
+                FrameConverter.scale(rgbData, scaleMap, frame.getRgbData());
+            } else {
+                Util.getFrameView(rgbData, width * height * 3).get(frame.getRgbData());
+            }
+        } else if (frame.getArgbData() != null) {
+            if (scaled) {
+                FrameConverter.scale(rgbData, scaleMap, frame.getArgbData());
+            } else {
+                FrameConverter.convert(rgbData, frame.getArgbData(), width, height);
+            }
+            frame.setImage(frame.getOwnImage());
+        } else {
+            // not an int RGB image: much slower when drawing it on the screen, converted through an array of the camera
+            int pixels = frameWidth * frameHeight;
+            if (argbBuffer == null || argbBuffer.length != pixels) {
+                argbBuffer = new int[pixels];
+            }
+            int[] argbData = argbBuffer;
+            if (scaled) {
+                FrameConverter.scale(rgbData, scaleMap, argbData);
+            } else {
+                FrameConverter.convert(rgbData, argbData, width, height);
+            }
+            frame.getOwnImage().setRGB(0, 0, frameWidth, frameHeight, argbData, 0, frameWidth);
+            frame.setImage(frame.getOwnImage());
+        }
+
+        if (stats != null) {
+            stats.getConvertTimer().record(start, System.nanoTime());
+        }
 
-        return Util.getRenderingBufferedImage(vf);
+        return frame;
     }
 
     @Override
     public String toString() {
-        return device.getNameStr();
+        return source.getName();
     }
 }
@@ -0,0 +1,467 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The capture loop of a camera: grabs the frames paced at the camera frame rate and posts them in its mailbox
+ * until stopped. Every session has its own stop flag, so several cameras can stream at the same time.
+ * <p>
+ * The frames are converted for display by a {@link ConvertStage}, on a thread of its own when there is more than
+ * one processor, so that the capture loop only waits on the device and the pacer.
+ * <p>
+ * An idle session keeps the camera open grabbing at a low rate, without posting, recording or streaming the frames
+ * nor filling the replay, so that it can be shown again without opening the device. Only the feed analyzer still
+ * watches them.
+ */
+final class CameraSession implements Runnable {
+
+    /**
+     * The states of a session, from the opening of its camera to the closing. A session is not run again once
+     * closed.
+     */
+    enum State {
+        CLOSED, OPENING, STREAMING, PAUSED, CLOSING
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(CameraSession.class);
+
+    private final CameraInfo camera;
+    private final FrameMailbox mailbox = new FrameMailbox();
+    private final FramePacer pacer;
+    private final CameraStats stats;
+    private final FeedAnalyzer analyzer;
+    private final QualityController quality;
+    private final ConvertStage convertStage;
+    private final int frameRate;
+    private FrameRecorder recorder;
+    private ReplayBuffer replayBuffer;
+    private PreviewServer previewServer;
+    private long statsLogPeriod = 0;
+    private boolean displayed = true;
+    private volatile boolean stopped = false;
+    private volatile boolean idle = false;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+
+    // the state of the capture loop, used by one thread at a time
+    private PreviewServer.Stream previewStream;
+    private boolean recording = false;
+    private ScheduledFuture<?> statsLogger;
+    private RawFrame rawFrame;
+    private QualityController.Level level = QualityController.Level.FULL;
+    private boolean idling = false;
+    private int consecutiveErrors = 0;
+    private long grabs = 0;
+
+    public CameraSession(CameraInfo camera) {
+        this.camera = camera;
+        this.pacer = new FramePacer(camera.getFrameRate(), true);
+        this.analyzer = new FeedAnalyzer(camera.getName());
+        this.stats = new CameraStats(camera.getName(), mailbox, pacer, analyzer);
+        this.quality = new QualityController(camera.getName(), stats, mailbox);
+        this.convertStage = new ConvertStage(camera, mailbox,
+                Runtime.getRuntime().availableProcessors() >= Util.CONVERT_THREAD_MIN_PROCESSORS);
+        this.frameRate = camera.getFrameRate();
+        stats.setQuality(quality);
+        stats.setConvertStage(convertStage);
+        camera.setStats(stats);
+        camera.setAnalyzer(analyzer);
+    }
+
+    public CameraInfo getCamera() {
+        return camera;
+    }
+
+    public FrameMailbox getMailbox() {
+        return mailbox;
+    }
+
+    public FramePacer getPacer() {
+        return pacer;
+    }
+
+    public FeedAnalyzer getAnalyzer() {
+        return analyzer;
+    }
+
+    public QualityController getQuality() {
+        return quality;
+    }
+
+    public CameraStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Sets how often, in seconds, a summary of the statistics is logged; 0 disables the summary.
+     */
+    public void setStatsLogPeriod(long statsLogPeriod) {
+        this.statsLogPeriod = statsLogPeriod;
+    }
+
+    /**
+     * Sets whether the grabbed frames are posted in the mailbox to be displayed, or recycled right away.
+     */
+    public void setDisplayed(boolean displayed) {
+        this.displayed = displayed;
+    }
+
+    /**
+     * Sets the recorder of the grabbed frames, started and closed with the session.
+     */
+    public void setRecorder(FrameRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    public ReplayBuffer getReplayBuffer() {
+        return replayBuffer;
+    }
+
+    /**
+     * Sets the ring of the instant replay, filled while the session runs and cleared when it stops.
+     */
+    public void setReplayBuffer(ReplayBuffer replayBuffer) {
+        this.replayBuffer = replayBuffer;
+    }
+
+    /**
+     * Sets the server on which the session serves its frames while it runs, <code>null</code> for none.
+     */
+    public void setPreviewServer(PreviewServer previewServer) {
+        this.previewServer = previewServer;
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Whether the session is still capturing, that is it has not been stopped nor failed to open the camera.
+     */
+    public boolean isRunning() {
+        return !stopped && finished.getCount() > 0;
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    public void stop() {
+        stopped = true;
+        // a session not yet started, or already closed, stays closed
+        if (!state.compareAndSet(State.STREAMING, State.CLOSING) && !state.compareAndSet(State.PAUSED, State.CLOSING)) {
+            state.compareAndSet(State.OPENING, State.CLOSING);
+        }
+        pacer.wake();
+    }
+
+    /**
+     * Waits for the capture loop to end and the camera to be closed, after {@link #stop()}.
+     *
+     * @return whether the session has ended within the timeout
+     */
+    public boolean awaitStopped(long timeoutMillis) throws InterruptedException {
+        return finished.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isIdle() {
+        return idle;
+    }
+
+    public void setIdle(boolean idle) {
+        this.idle = idle;
+        pacer.wake();
+    }
+
+    @Override
+    public void run() {
+        if (!begin()) {
+            return;
+        }
+
+        try {
+            while (step()) {
+                pacer.awaitNextFrame();
+            }
+        } finally {
+            end();
+        }
+    }
+
+    /**
+     * Opens the camera and starts the capture, for a loop calling {@link #step()} and then {@link #end()}, such
+     * as {@link #run()} or the {@link CaptureEngine}.
+     *
+     * @return whether the capture has started; if not the session has already ended
+     */
+    public boolean begin() {
+        if (stopped || !state.compareAndSet(State.CLOSED, State.OPENING)) {
+            // stopped before starting, or run twice
+            finished.countDown();
+            return false;
+        }
+
+        boolean started = false;
+        try {
+            started = open();
+        } finally {
+            if (!started) {
+                state.set(State.CLOSED);
+                finished.countDown();
+            }
+        }
+        return started;
+    }
+
+    private boolean open() {
+        logger.debug("Starting stream on camera '{}'.", camera);
+
+        try {
+            camera.open();
+        } catch (IOException e) {
+            logger.warn(null, e);
+            return false;
+        }
+        if (!state.compareAndSet(State.OPENING, State.STREAMING)) {
+            // stopped while opening
+            camera.close();
+            return false;
+        }
+
+        if (recorder != null) {
+            try {
+                recorder.start();
+                stats.setRecorder(recorder);
+                camera.setRecorder(recorder);
+                recording = true;
+            } catch (IOException e) {
+                logger.warn("Cannot record camera '" + camera + "'.", e);
+            }
+        }
+
+        if (replayBuffer != null) {
+            camera.setReplayBuffer(replayBuffer);
+        }
+
+        if (previewServer != null) {
+            previewStream = previewServer.openStream(camera.getName());
+            camera.setPreviewStream(previewStream);
+        }
+
+        stats.register();
+        if (statsLogPeriod > 0) {
+            statsLogger = Util.getScheduler().scheduleAtFixedRate(new Runnable() {
+
+                @Override
+                public void run() {
+                    logger.info("Camera '{}': {}.", camera, stats.getSummary());
+                }
+            }, statsLogPeriod, statsLogPeriod, TimeUnit.SECONDS);
+        }
+
+        pacer.start();
+        convertStage.start();
+        return true;
+    }
+
+    /**
+     * Grabs a frame, on the thread of the loop of the session.
+     *
+     * @return whether the capture goes on, <code>false</code> once stopped or when the camera cannot be reopened
+     */
+    public boolean step() {
+        if (stopped) {
+            return false;
+        }
+
+        if (idle != idling) {
+            idling = idle;
+            applyIdle(idling);
+        }
+
+        boolean shown = displayed && !idling;
+        if (shown) {
+            QualityController.Level newLevel = quality.evaluate(System.nanoTime());
+            if (newLevel != level) {
+                level = newLevel;
+                applyQuality(level);
+            }
+        }
+
+        try {
+            // at half frames only every other frame is converted, the taps still get them all
+            boolean convert = shown
+                    && (level.compareTo(QualityController.Level.HALF_FRAMES) < 0 || (grabs++ & 1) == 0);
+            if (rawFrame == null) {
+                rawFrame = convertStage.acquire();
+            }
+            boolean grabbed = camera.grab(rawFrame, convertStage.isThreaded());
+            if (consecutiveErrors > 1) {
+                logger.info("Camera '{}' recovered after {} errors.", camera, consecutiveErrors);
+            }
+            consecutiveErrors = 0;
+            if (grabbed) {
+                stats.frameGrabbed();
+                pacer.frameDelivered();
+                if (rawFrame != null) {
+                    RawFrame submittedFrame = rawFrame;
+                    rawFrame = null;
+                    submittedFrame.setConverted(convert);
+                    convertStage.submit(submittedFrame);
+                } else {
+                    // every slot is still to be handled: the stage is behind
+                    stats.frameUnbuffered();
+                }
+            }
+        } catch (Exception e) {
+            if (stopped) {
+                // the device may fail while being closed, e.g. when it was removed
+                return false;
+            }
+            stats.errorOccurred();
+
+            // only the first error of a streak is logged in full, the device may keep failing until reopened
+            if (consecutiveErrors == 0) {
+                logger.warn("Cannot grab from camera '" + camera + "'.", e);
+            } else {
+                logger.debug("Cannot grab from camera '{}': {}", camera, e.toString());
+            }
+
+            if (++consecutiveErrors >= Util.REOPEN_AFTER_ERRORS) {
+                consecutiveErrors = 0;
+                if (!reopen()) {
+                    return false;
+                }
+            }
+        }
+
+        return !stopped;
+    }
+
+    /**
+     * Closes the camera once the capture is over, after {@link #begin()} has started it.
+     */
+    public void end() {
+        try {
+            close();
+        } finally {
+            state.set(State.CLOSED);
+            finished.countDown();
+        }
+    }
+
+    private void close() {
+        logger.debug("Stopping stream on camera '{}'.", camera);
+        state.set(State.CLOSING);
+
+        try {
+            convertStage.close();
+            Frame pendingFrame = mailbox.take();
+            if (pendingFrame != null) {
+                pendingFrame.recycle();
+            }
+            camera.close();
+            camera.releaseFrames();
+        } finally {
+            if (statsLogger != null) {
+                statsLogger.cancel(false);
+            }
+            stats.unregister();
+            if (recorder != null) {
+                camera.setRecorder(null);
+                recorder.close();
+            }
+            if (replayBuffer != null) {
+                camera.setReplayBuffer(null);
+                replayBuffer.clear();
+            }
+            if (previewStream != null) {
+                camera.setPreviewStream(null);
+                previewServer.closeStream(previewStream);
+            }
+            camera.setDisplayScale(1);
+            camera.setFrameRate(frameRate);
+        }
+
+        logger.debug("Camera '{}': {}.", camera, stats.getSummary());
+    }
+
+    private void applyQuality(QualityController.Level level) {
+        boolean reducedRate = level.compareTo(QualityController.Level.REDUCED_RATE) >= 0;
+        camera.setDisplayScale(level.compareTo(QualityController.Level.REDUCED_SIZE) >= 0 ? 0.5 : 1);
+        // also asked to the device, should the camera be reopened
+        camera.setFrameRate(reducedRate ? Math.max(1, frameRate / 2) : frameRate);
+        pacer.setRequestedFrameRate(camera.getFrameRate());
+    }
+
+    private void applyIdle(boolean idling) {
+        logger.debug("Camera '{}' {}.", camera, idling ? "idle" : "active");
+
+        quality.restart();
+        pacer.setIdle(idling);
+        state.compareAndSet(idling ? State.STREAMING : State.PAUSED, idling ? State.PAUSED : State.STREAMING);
+        if (replayBuffer != null) {
+            camera.setReplayBuffer(idling ? null : replayBuffer);
+            if (idling) {
+                replayBuffer.clear();
+            }
+        }
+        // a camera switched away from is neither recorded nor streamed at the idle frame rate
+        if (recording) {
+            camera.setRecorder(idling ? null : recorder);
+        }
+        if (previewStream != null) {
+            camera.setPreviewStream(idling ? null : previewStream);
+        }
+        if (idling) {
+            Frame pendingFrame = mailbox.take();
+            if (pendingFrame != null) {
+                pendingFrame.recycle();
+            }
+        }
+    }
+
+    private boolean reopen() {
+        logger.info("Reopening camera '{}' after {} consecutive errors.", camera, Util.REOPEN_AFTER_ERRORS);
+
+        camera.close();
+        try {
+            camera.open();
+        } catch (IOException e) {
+            logger.warn("Cannot reopen camera '" + camera + "'.", e);
+            return false;
+        }
+
+        stats.cameraReopened();
+        return true;
+    }
+}
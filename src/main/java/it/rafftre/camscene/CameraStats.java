@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The counters and the stage timers of a camera session: grab (waiting the device), convert (copying or
+ * converting the frame for display), handoff (waiting in the mailbox) and render (drawing on the JavaFX thread).
+ * When the conversion has its own thread, the occupancy and the stalls of its {@link ConvertStage} are counted too.
+ */
+final class CameraStats implements CameraStatsMBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(CameraStats.class);
+    private static final AtomicInteger sessionIds = new AtomicInteger();
+
+    private final String cameraName;
+    private final FrameMailbox mailbox;
+    private final FramePacer pacer;
+    private final FeedAnalyzer analyzer;
+
+    private final StageTimer grab = new StageTimer();
+    private final StageTimer convert = new StageTimer();
+    private final StageTimer handoff = new StageTimer();
+    private final StageTimer render = new StageTimer();
+
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong unbufferedFrames = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong reopens = new AtomicLong();
+    private final AtomicLong comparedTiles = new AtomicLong();
+    private final AtomicLong changedTiles = new AtomicLong();
+    private final AtomicLong unchangedFrames = new AtomicLong();
+
+    private volatile FrameRecorder recorder;
+    private volatile QualityController quality;
+    private volatile ConvertStage convertStage;
+    private ObjectName objectName;
+
+    public CameraStats(String cameraName, FrameMailbox mailbox, FramePacer pacer, FeedAnalyzer analyzer) {
+        this.cameraName = cameraName;
+        this.mailbox = mailbox;
+        this.pacer = pacer;
+        this.analyzer = analyzer;
+    }
+
+    public StageTimer getGrabTimer() {
+        return grab;
+    }
+
+    public StageTimer getConvertTimer() {
+        return convert;
+    }
+
+    public StageTimer getHandoffTimer() {
+        return handoff;
+    }
+
+    public StageTimer getRenderTimer() {
+        return render;
+    }
+
+    public void setRecorder(FrameRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    public void setQuality(QualityController quality) {
+        this.quality = quality;
+    }
+
+    public void setConvertStage(ConvertStage convertStage) {
+        this.convertStage = convertStage;
+    }
+
+    public void frameGrabbed() {
+        frames.incrementAndGet();
+    }
+
+    /**
+     * Counts a frame dropped because every buffer was still in use.
+     */
+    public void frameUnbuffered() {
+        unbufferedFrames.incrementAndGet();
+    }
+
+    /**
+     * Counts the tiles of a frame compared with the previous one, and the frame itself if none has changed.
+     */
+    public void tilesCompared(int tiles, int changed) {
+        comparedTiles.addAndGet(tiles);
+        changedTiles.addAndGet(changed);
+        if (changed == 0) {
+            unchangedFrames.incrementAndGet();
+        }
+    }
+
+    public void errorOccurred() {
+        errors.incrementAndGet();
+    }
+
+    public void cameraReopened() {
+        reopens.incrementAndGet();
+    }
+
+    public synchronized void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName(Util.JMX_DOMAIN + ":type=Camera,name=" + ObjectName.quote(cameraName)
+                    + ",session=" + sessionIds.incrementAndGet());
+            server.registerMBean(new StandardMBean(this, CameraStatsMBean.class), objectName);
+        } catch (JMException e) {
+            logger.warn("Cannot publish the statistics of camera '" + cameraName + "'.", e);
+            objectName = null;
+        }
+    }
+
+    public synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            logger.debug("Cannot unpublish the statistics of camera '" + cameraName + "'.", e);
+        }
+        objectName = null;
+    }
+
+    public String getSummary() {
+        String summary = String.format("%.1f fps, %d frames, %d dropped, %d skipped, %d errors, %d reopens, "
+                        + "feed %s, %d scene cuts; grab %s; convert %s; handoff %s; render %s",
+                getDeliveredFrameRate(), getFrames(), getDroppedFrames(), getSkippedFrames(), getErrors(),
+                getReopens(), getFeedAlert(), getSceneCuts(), grab, convert, handoff, render);
+        if (quality != null && quality.getLevel() != QualityController.Level.FULL) {
+            summary += "; quality " + getQualityLevel();
+        }
+        if (comparedTiles.get() > 0) {
+            summary += String.format("; %.1f%% tiles changed, %d unchanged frames",
+                    getChangedTileRatio() * 100, getUnchangedFrames());
+        }
+        if (convertStage != null && convertStage.isThreaded()) {
+            summary += String.format("; convert queue %d/%d, %d capture stalls, %d convert stalls",
+                    getConvertQueueOccupancy(), convertStage.getCapacity(), getCaptureStalls(), getConvertStalls());
+        }
+        if (recorder != null) {
+            summary += String.format("; recorded %d frames, %d not recorded",
+                    getRecordedFrames(), getUnrecordedFrames());
+        }
+
+        return summary;
+    }
+
+    @Override
+    public String getCameraName() {
+        return cameraName;
+    }
+
+    @Override
+    public long getFrames() {
+        return frames.get();
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return mailbox.getDroppedFrames() + unbufferedFrames.get();
+    }
+
+    @Override
+    public long getRenderedFrames() {
+        return mailbox.getRenderedFrames();
+    }
+
+    @Override
+    public long getSkippedFrames() {
+        return pacer.getSkippedFrames();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.get();
+    }
+
+    @Override
+    public long getReopens() {
+        return reopens.get();
+    }
+
+    @Override
+    public String getFeedAlert() {
+        return analyzer.getAlert().name().toLowerCase();
+    }
+
+    @Override
+    public long getSceneCuts() {
+        return analyzer.getSceneCuts();
+    }
+
+    @Override
+    public String getQualityLevel() {
+        QualityController controller = quality;
+        return controller != null ? controller.getLevel().name().toLowerCase() : "";
+    }
+
+    @Override
+    public double getChangedTileRatio() {
+        long compared = comparedTiles.get();
+        return compared > 0 ? (double) changedTiles.get() / compared : 0;
+    }
+
+    @Override
+    public long getUnchangedFrames() {
+        return unchangedFrames.get();
+    }
+
+    @Override
+    public int getConvertQueueOccupancy() {
+        ConvertStage stage = convertStage;
+        return stage != null ? stage.getOccupancy() : 0;
+    }
+
+    @Override
+    public long getCaptureStalls() {
+        ConvertStage stage = convertStage;
+        return stage != null ? stage.getCaptureStalls() : 0;
+    }
+
+    @Override
+    public long getConvertStalls() {
+        ConvertStage stage = convertStage;
+        return stage != null ? stage.getConvertStalls() : 0;
+    }
+
+    @Override
+    public long getRecordedFrames() {
+        FrameRecorder frameRecorder = recorder;
+        return frameRecorder != null ? frameRecorder.getRecordedFrames() : 0;
+    }
+
+    @Override
+    public long getUnrecordedFrames() {
+        FrameRecorder frameRecorder = recorder;
+        return frameRecorder != null ? frameRecorder.getDroppedFrames() : 0;
+    }
+
+    @Override
+    public int getPacingFrameRate() {
+        return pacer.getFrameRate();
+    }
+
+    @Override
+    public double getDeliveredFrameRate() {
+        return pacer.getDeliveredFrameRate();
+    }
+
+    @Override
+    public long getFrameIntervalP99Micros() {
+        return pacer.getIntervalP99() / 1000;
+    }
+
+    @Override
+    public long getJitterP99Micros() {
+        return pacer.getJitterP99() / 1000;
+    }
+
+    @Override
+    public long getJitterMaxMicros() {
+        return pacer.getJitterMax() / 1000;
+    }
+
+    @Override
+    public long getGrabP50Micros() {
+        return grab.getP50() / 1000;
+    }
+
+    @Override
+    public long getGrabP99Micros() {
+        return grab.getP99() / 1000;
+    }
+
+    @Override
+    public long getGrabMaxMicros() {
+        return grab.getMax() / 1000;
+    }
+
+    @Override
+    public long getConvertP50Micros() {
+        return convert.getP50() / 1000;
+    }
+
+    @Override
+    public long getConvertP99Micros() {
+        return convert.getP99() / 1000;
+    }
+
+    @Override
+    public long getConvertMaxMicros() {
+        return convert.getMax() / 1000;
+    }
+
+    @Override
+    public long getHandoffP50Micros() {
+        return handoff.getP50() / 1000;
+    }
+
+    @Override
+    public long getHandoffP99Micros() {
+        return handoff.getP99() / 1000;
+    }
+
+    @Override
+    public long getHandoffMaxMicros() {
+        return handoff.getMax() / 1000;
+    }
+
+    @Override
+    public long getRenderP50Micros() {
+        return render.getP50() / 1000;
+    }
+
+    @Override
+    public long getRenderP99Micros() {
+        return render.getP99() / 1000;
+    }
+
+    @Override
+    public long getRenderMaxMicros() {
+        return render.getMax() / 1000;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+/**
+ * The statistics of a camera session published over JMX. Durations are in microseconds and refer to the last
+ * complete statistics window.
+ */
+public interface CameraStatsMBean {
+
+    String getCameraName();
+
+    long getFrames();
+
+    long getDroppedFrames();
+
+    long getRenderedFrames();
+
+    long getSkippedFrames();
+
+    long getErrors();
+
+    long getReopens();
+
+    String getFeedAlert();
+
+    long getSceneCuts();
+
+    String getQualityLevel();
+
+    /**
+     * The share of the compared tiles that had changed, in the tiles render mode.
+     */
+    double getChangedTileRatio();
+
+    long getUnchangedFrames();
+
+    int getConvertQueueOccupancy();
+
+    long getCaptureStalls();
+
+    long getConvertStalls();
+
+    long getRecordedFrames();
+
+    long getUnrecordedFrames();
+
+    int getPacingFrameRate();
+
+    double getDeliveredFrameRate();
+
+    long getFrameIntervalP99Micros();
+
+    long getJitterP99Micros();
+
+    long getJitterMaxMicros();
+
+    long getGrabP50Micros();
+
+    long getGrabP99Micros();
+
+    long getGrabMaxMicros();
+
+    long getConvertP50Micros();
+
+    long getConvertP99Micros();
+
+    long getConvertMaxMicros();
+
+    long getHandoffP50Micros();
+
+    long getHandoffP99Micros();
+
+    long getHandoffMaxMicros();
+
+    long getRenderP50Micros();
+
+    long getRenderP99Micros();
+
+    long getRenderMaxMicros();
+}
@@ -0,0 +1,447 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Captures many camera sessions on a fixed number of worker threads, instead of a thread for every session that
+ * spends most of its time waiting for the next frame.
+ * <p>
+ * Every session, a feed, is a sequence of steps grabbing one frame each, see {@link CameraSession#step()}. After a
+ * step the deadline of the next one, as given by the pacer of the session, goes in a timer wheel: a single timer
+ * thread moves the feeds whose deadline has come to a queue of ready feeds, from which the workers take them in
+ * order. A feed runs one step at a time, so when the workers cannot keep up every feed loses frames in turn and
+ * none is starved. A feed is woken before its deadline when its pacer is (e.g. the session is stopped), and ends
+ * when a step returns <code>false</code>.
+ * <p>
+ * The steps must not block for long: the engine suits the sources that deliver their frames without waiting, and
+ * the {@link CaptureService} keeps the others, see {@link FrameSource#isBlocking()}, on threads of their own.
+ * <p>
+ * The timer thread sleeps until the earliest deadline in the wheel, and for as long as the wheel is empty. Every
+ * feed has a single entry in the wheel, moved at every step and never reallocated: an entry left at a deadline that
+ * is no longer the one of its feed is told by its generation, and fires nothing.
+ */
+final class CaptureEngine {
+
+    /**
+     * Told of the feeds that have ended, on a worker thread or on the thread stopping the engine: the camera is still
+     * to be closed with {@link CameraSession#end()}.
+     */
+    interface Listener {
+
+        void feedEnded(CameraSession session);
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(CaptureEngine.class);
+
+    private static final int WAITING = 0;
+    private static final int READY = 1;
+    private static final int RUNNING = 2;
+    private static final int ENDED = 3;
+
+    private final Listener listener;
+    private final Thread[] workers;
+    private final Thread timer;
+    private final BlockingQueue<Feed> readyFeeds = new LinkedBlockingQueue<>();
+    private final Set<Feed> feeds = Collections.newSetFromMap(new ConcurrentHashMap<Feed, Boolean>());
+    private final AtomicLong steps = new AtomicLong();
+    private final AtomicLong lateSteps = new AtomicLong();
+    private volatile boolean stopped = false;
+
+    // the timer wheel, used by the timer thread only but for the stack of the scheduled entries
+    private final AtomicReference<Entry> scheduledEntries = new AtomicReference<>();
+    private final Entry[] wheel = new Entry[Util.CAPTURE_WHEEL_SIZE];
+    private final Entry[] wheelTails = new Entry[Util.CAPTURE_WHEEL_SIZE];
+    private final long tickNanos = Util.CAPTURE_WHEEL_TICK_NANOS;
+    private final long startTime = System.nanoTime();
+    private long currentTick;
+    private int wheelEntries;
+    private volatile boolean timerIdle = true;
+    private volatile long timerWakeTime = startTime;
+
+    public CaptureEngine(String name, int workerThreads, Listener listener) {
+        this.listener = listener;
+
+        workers = new Thread[workerThreads];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    work();
+                }
+            }, name + "-worker-" + (i + 1));
+            workers[i].setDaemon(true);
+        }
+        timer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                tick();
+            }
+        }, name + "-timer");
+        timer.setDaemon(true);
+    }
+
+    public void start() {
+        timer.start();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * Stops the threads of the engine, waiting for the steps running, and hands the feeds not yet ended to the
+     * listener, as if they had ended.
+     */
+    public void stop() {
+        stopped = true;
+        timer.interrupt();
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        try {
+            long deadline = System.currentTimeMillis() + Util.SESSION_CLOSE_TIMEOUT_MS;
+            for (Thread worker : workers) {
+                worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // a feed still running, its worker late, ends when the step returns
+        for (Feed feed : feeds) {
+            if (feed.state.compareAndSet(WAITING, ENDED) || feed.state.compareAndSet(READY, ENDED)) {
+                end(feed);
+            }
+        }
+    }
+
+    /**
+     * Adds a session, already begun, and steps it right away.
+     */
+    public void add(CameraSession session) {
+        final Feed feed = new Feed(session);
+        session.getPacer().setWaker(new Runnable() {
+
+            @Override
+            public void run() {
+                feed.wake();
+            }
+        });
+        feeds.add(feed);
+        feed.state.set(READY);
+        readyFeeds.add(feed);
+    }
+
+    public int getFeedCount() {
+        return feeds.size();
+    }
+
+    public int getWorkerThreads() {
+        return workers.length;
+    }
+
+    public long getSteps() {
+        return steps.get();
+    }
+
+    /**
+     * The steps run more than {@link Util#CAPTURE_LATE_NANOS} after their deadline, all workers being busy.
+     */
+    public long getLateSteps() {
+        return lateSteps.get();
+    }
+
+    private void work() {
+        try {
+            while (!stopped) {
+                Feed feed = readyFeeds.take();
+                if (feed.state.compareAndSet(READY, RUNNING)) {
+                    run(feed);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run(Feed feed) {
+        CameraSession session = feed.session;
+        if (System.nanoTime() - feed.deadline > Util.CAPTURE_LATE_NANOS) {
+            lateSteps.incrementAndGet();
+        }
+        steps.incrementAndGet();
+
+        feed.rerun = false;
+        boolean running;
+        try {
+            running = session.step();
+        } catch (RuntimeException e) {
+            logger.warn("Camera '" + session.getCamera() + "' failed.", e);
+            running = false;
+        }
+        if (!running || stopped) {
+            feed.state.set(ENDED);
+            end(feed);
+            return;
+        }
+
+        long deadline = session.getPacer().nextDeadline();
+        feed.deadline = deadline;
+        feed.generation++;
+        feed.state.set(WAITING);
+        push(feed.entry);
+        if (timerIdle || deadline - timerWakeTime < 0) {
+            // sooner than the timer thread is to wake up
+            LockSupport.unpark(timer);
+        }
+        if (stopped && feed.state.compareAndSet(WAITING, ENDED)) {
+            // stopped meanwhile, the feed not being handed back yet
+            end(feed);
+        } else if (feed.rerun && feed.state.compareAndSet(WAITING, READY)) {
+            // woken while running
+            readyFeeds.add(feed);
+        }
+    }
+
+    private void end(Feed feed) {
+        feeds.remove(feed);
+        feed.session.getPacer().setWaker(null);
+        listener.feedEnded(feed.session);
+    }
+
+    /**
+     * Hands the entry of a feed to the timer thread, unless it is already waiting for it.
+     */
+    private void push(Entry entry) {
+        if (!entry.queued.compareAndSet(false, true)) {
+            // the timer thread reads the deadline once it takes the entry
+            return;
+        }
+
+        Entry head;
+        do {
+            head = scheduledEntries.get();
+            entry.nextQueued = head;
+        } while (!scheduledEntries.compareAndSet(head, entry));
+    }
+
+    private void tick() {
+        while (!stopped) {
+            long now = System.nanoTime();
+            long tick = (now - startTime) / tickNanos;
+            if (wheelEntries == 0 && currentTick < tick) {
+                // nothing to expire in the ticks gone while the thread was parked
+                currentTick = tick;
+            }
+
+            // the stack reversed, so that the entries are scheduled in the order they came
+            Entry entries = null;
+            for (Entry entry = scheduledEntries.getAndSet(null), next; entry != null; entry = next) {
+                next = entry.nextQueued;
+                entry.nextQueued = entries;
+                entries = entry;
+            }
+            for (Entry entry = entries, next; entry != null; entry = next) {
+                next = entry.nextQueued;
+                entry.nextQueued = null;
+                entry.queued.set(false);
+                schedule(entry, now);
+            }
+
+            // catches up with the ticks missed, if the thread has been late, at most a turn of the wheel
+            if (tick - currentTick >= wheel.length) {
+                for (int bucket = 0; bucket < wheel.length; bucket++) {
+                    expire(bucket, tick);
+                }
+                currentTick = tick + 1;
+            }
+            for (; currentTick <= tick; currentTick++) {
+                expire((int) (currentTick & (wheel.length - 1)), currentTick);
+            }
+
+            // the entries scheduled meanwhile unpark the thread if they are due sooner
+            long nextTick = getNextTick();
+            if (nextTick < 0) {
+                timerIdle = true;
+                if (scheduledEntries.get() == null) {
+                    LockSupport.park(this);
+                }
+                timerIdle = false;
+            } else {
+                long wakeTime = startTime + nextTick * tickNanos;
+                timerWakeTime = wakeTime;
+                long delay = wakeTime - System.nanoTime();
+                if (delay > 0 && scheduledEntries.get() == null) {
+                    LockSupport.parkNanos(this, delay);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the earliest tick of the entries in the wheel, or -1 if it is empty.
+     */
+    private long getNextTick() {
+        if (wheelEntries == 0) {
+            return -1;
+        }
+
+        long nextTick = Long.MAX_VALUE;
+        for (int i = 0; i < wheel.length; i++) {
+            long tick = currentTick + i;
+            for (Entry entry = wheel[(int) (tick & (wheel.length - 1))]; entry != null; entry = entry.next) {
+                if (entry.tick == tick) {
+                    // no entry of a later turn of the wheel comes before
+                    return tick;
+                }
+                nextTick = Math.min(nextTick, entry.tick);
+            }
+        }
+        return nextTick;
+    }
+
+    private void schedule(Entry entry, long now) {
+        Feed feed = entry.feed;
+        // the generation first: a deadline newer than it makes at worst a stale entry, pushed again meanwhile
+        entry.generation = feed.generation;
+        entry.deadline = feed.deadline;
+        if (entry.inWheel) {
+            // still at the deadline of a step before, the feed having been woken
+            unlink(entry);
+        }
+        if (entry.deadline - now <= 0) {
+            fire(entry);
+            return;
+        }
+
+        entry.tick = Math.max(currentTick, (entry.deadline - startTime + tickNanos - 1) / tickNanos);
+        // appended, so that the feeds due at the same tick keep their order from one frame to the next
+        int bucket = (int) (entry.tick & (wheel.length - 1));
+        entry.previous = wheelTails[bucket];
+        if (entry.previous == null) {
+            wheel[bucket] = entry;
+        } else {
+            entry.previous.next = entry;
+        }
+        wheelTails[bucket] = entry;
+        entry.inWheel = true;
+        wheelEntries++;
+    }
+
+    private void unlink(Entry entry) {
+        int bucket = (int) (entry.tick & (wheel.length - 1));
+        if (entry.previous == null) {
+            wheel[bucket] = entry.next;
+        } else {
+            entry.previous.next = entry.next;
+        }
+        if (entry.next == null) {
+            wheelTails[bucket] = entry.previous;
+        } else {
+            entry.next.previous = entry.previous;
+        }
+        entry.previous = null;
+        entry.next = null;
+        entry.inWheel = false;
+        wheelEntries--;
+    }
+
+    /**
+     * Fires the entries of a bucket due at the given tick or before.
+     */
+    private void expire(int bucket, long tick) {
+        for (Entry entry = wheel[bucket], next; entry != null; entry = next) {
+            next = entry.next;
+            if (entry.tick > tick) {
+                // a later turn of the wheel
+                continue;
+            }
+
+            unlink(entry);
+            fire(entry);
+        }
+    }
+
+    private void fire(Entry entry) {
+        Feed feed = entry.feed;
+        // the entry of a feed woken before its deadline, and stepped again, is stale
+        if (entry.generation == feed.generation && feed.state.compareAndSet(WAITING, READY)) {
+            readyFeeds.add(feed);
+        }
+    }
+
+    private final class Feed {
+
+        final CameraSession session;
+        final Entry entry = new Entry(this);
+        final AtomicInteger state = new AtomicInteger(READY);
+        volatile long deadline = System.nanoTime();
+        volatile long generation;
+        volatile boolean rerun;
+
+        Feed(CameraSession session) {
+            this.session = session;
+        }
+
+        void wake() {
+            rerun = true;
+            if (state.compareAndSet(WAITING, READY)) {
+                readyFeeds.add(this);
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        final Feed feed;
+        // whether the entry is in the stack of the scheduled entries, and its next one there
+        final AtomicBoolean queued = new AtomicBoolean();
+        Entry nextQueued;
+        // used by the timer thread only
+        long generation;
+        long deadline;
+        long tick;
+        boolean inWheel;
+        Entry previous;
+        Entry next;
+
+        Entry(Feed feed) {
+            this.feed = feed;
+        }
+    }
+}
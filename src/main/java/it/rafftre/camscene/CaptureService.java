@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the camera sessions, each on a thread of its own, so that a camera is never captured by two sessions at
+ * once: starting a session stops the previous one of the same camera, and the new one opens the device only after
+ * the previous one has closed it.
+ * <p>
+ * With a {@link CaptureEngine} the sessions are only opened and closed on threads of their own, and captured on
+ * the few threads of the engine. The sessions of a source that waits for its frames, such as a device, are still
+ * captured on a thread of their own, since a step waiting for a frame would hold a worker of the engine.
+ */
+final class CaptureService implements CaptureServiceMBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(CaptureService.class);
+
+    private final ThreadPoolExecutor executor;
+    private final CaptureEngine engine;
+    private final Map<String, CameraSession> sessions = new LinkedHashMap<>();
+    private final AtomicInteger captureThreads = new AtomicInteger();
+    private final AtomicLong startedSessions = new AtomicLong();
+    private ObjectName objectName;
+
+    public CaptureService() {
+        this(0);
+    }
+
+    /**
+     * @param engineThreads the worker threads of the capture engine, 0 to capture every session on a thread of its
+     * own
+     */
+    public CaptureService(int engineThreads) {
+        executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread th = new Thread(r, "capture-" + count.incrementAndGet());
+                th.setDaemon(true);
+                return th;
+            }
+        });
+
+        if (engineThreads > 0) {
+            engine = new CaptureEngine("capture", engineThreads, new CaptureEngine.Listener() {
+
+                @Override
+                public void feedEnded(CameraSession session) {
+                    end(session);
+                }
+            });
+            engine.start();
+        } else {
+            engine = null;
+        }
+    }
+
+    /**
+     * Runs a session, after stopping and waiting for the previous session of the same camera.
+     */
+    public synchronized void start(final CameraSession session) {
+        final String name = session.getCamera().getName();
+        final CameraSession previous = sessions.put(name, session);
+        if (previous == session) {
+            return;
+        }
+        if (previous != null) {
+            logger.debug("Replacing the session of camera '{}'.", name);
+            previous.stop();
+        }
+
+        startedSessions.incrementAndGet();
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                captureThreads.incrementAndGet();
+                boolean captured = false;
+                try {
+                    if (previous != null && !awaitStopped(previous)) {
+                        // ends the session at once, for whoever awaits it
+                        session.stop();
+                    }
+                    if (engine == null || session.getCamera().getSource().isBlocking()) {
+                        session.run();
+                    } else if (session.begin()) {
+                        engine.add(session);
+                        captured = true;
+                    }
+                } finally {
+                    captureThreads.decrementAndGet();
+                    if (!captured) {
+                        sessionEnded(name, session);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Closes the camera of a session ended in the engine.
+     */
+    private void end(final CameraSession session) {
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                captureThreads.incrementAndGet();
+                try {
+                    session.end();
+                } finally {
+                    captureThreads.decrementAndGet();
+                    sessionEnded(session.getCamera().getName(), session);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops every session, waiting at most the given time for the cameras to be closed.
+     *
+     * @return whether every session has ended within the timeout
+     */
+    public boolean stopAll(long timeoutMillis) throws InterruptedException {
+        List<CameraSession> running;
+        synchronized (this) {
+            running = new ArrayList<>(sessions.values());
+        }
+
+        for (CameraSession session : running) {
+            session.stop();
+        }
+        return awaitAll(timeoutMillis);
+    }
+
+    /**
+     * Waits for every session to end.
+     *
+     * @return whether every session has ended within the timeout
+     */
+    public synchronized boolean awaitAll(long timeoutMillis) throws InterruptedException {
+        long remaining = timeoutMillis;
+        while (!sessions.isEmpty() && remaining > 0) {
+            long start = System.currentTimeMillis();
+            wait(remaining);
+            remaining -= System.currentTimeMillis() - start;
+        }
+        return sessions.isEmpty();
+    }
+
+    /**
+     * Stops the threads of the service, once every session has ended. The sessions still captured by the engine are
+     * ended too, their cameras being closed in the background.
+     */
+    public void shutdown() {
+        if (engine != null) {
+            // before the executor, which closes the cameras handed back
+            engine.stop();
+        }
+        executor.shutdown();
+    }
+
+    public synchronized CameraSession.State getState(String cameraName) {
+        CameraSession session = sessions.get(cameraName);
+        return session != null ? session.getState() : CameraSession.State.CLOSED;
+    }
+
+    @Override
+    public synchronized int getSessionCount() {
+        return sessions.size();
+    }
+
+    @Override
+    public int getCaptureThreads() {
+        return captureThreads.get() + (engine != null ? engine.getWorkerThreads() : 0);
+    }
+
+    @Override
+    public int getEngineFeeds() {
+        return engine != null ? engine.getFeedCount() : 0;
+    }
+
+    @Override
+    public long getEngineSteps() {
+        return engine != null ? engine.getSteps() : 0;
+    }
+
+    @Override
+    public long getLateEngineSteps() {
+        return engine != null ? engine.getLateSteps() : 0;
+    }
+
+    @Override
+    public long getStartedSessions() {
+        return startedSessions.get();
+    }
+
+    @Override
+    public synchronized String[] getCameraStates() {
+        List<String> states = new ArrayList<>();
+        for (Map.Entry<String, CameraSession> entry : sessions.entrySet()) {
+            states.add(entry.getKey() + ": " + entry.getValue().getState());
+        }
+        return states.toArray(new String[states.size()]);
+    }
+
+    public synchronized void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName(Util.JMX_DOMAIN + ":type=CaptureService");
+            server.registerMBean(new StandardMBean(this, CaptureServiceMBean.class), objectName);
+        } catch (JMException e) {
+            logger.warn("Cannot publish the capture service.", e);
+            objectName = null;
+        }
+    }
+
+    public synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            logger.debug("Cannot unpublish the capture service.", e);
+        }
+        objectName = null;
+    }
+
+    /**
+     * Waits for the previous session of a camera to close it, before a new session opens it again.
+     *
+     * @return whether the new session may run
+     */
+    private boolean awaitStopped(CameraSession previous) {
+        try {
+            while (!previous.awaitStopped(Util.SESSION_CLOSE_TIMEOUT_MS)) {
+                logger.warn("Still waiting for camera '{}' to be closed.", previous.getCamera());
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private synchronized void sessionEnded(String name, CameraSession session) {
+        if (sessions.get(name) == session) {
+            sessions.remove(name);
+        }
+        notifyAll();
+    }
+}
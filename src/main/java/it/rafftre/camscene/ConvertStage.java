@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The taps and the conversion of the grabbed frames for display, between the capture thread and the mailbox.
+ * <p>
+ * On a machine with more than one processor the stage has its own thread: the capture thread only copies the frame
+ * in one of a few free slots and goes back to the device, so the frame rate is bound by the slower of grabbing and
+ * converting and not by their sum. The recorder, the replay and the other taps read the frame from the slot on the
+ * thread of the stage, so that neither their copies nor their locks delay the capture. The slots go to the thread
+ * of the stage and back through two {@link FrameRing}s; when no slot is free the frame is dropped, for the taps
+ * too. Otherwise the frames are handed to the taps and converted on the capture thread, read in place without
+ * copying them.
+ */
+final class ConvertStage implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConvertStage.class);
+
+    private final CameraInfo camera;
+    private final FrameMailbox mailbox;
+    private final FrameRing<RawFrame> filledFrames;
+    private final FrameRing<RawFrame> freeFrames;
+    private final RawFrame inlineFrame;
+    private volatile boolean stopped = false;
+    private Thread thread;
+
+    /**
+     * @param threaded whether the frames are converted on a thread of the stage
+     */
+    public ConvertStage(CameraInfo camera, FrameMailbox mailbox, boolean threaded) {
+        this.camera = camera;
+        this.mailbox = mailbox;
+        if (threaded) {
+            filledFrames = new FrameRing<>(Util.CONVERT_SLOTS);
+            freeFrames = new FrameRing<>(Util.CONVERT_SLOTS);
+            for (int i = 0; i < Util.CONVERT_SLOTS; i++) {
+                freeFrames.offer(new RawFrame());
+            }
+            inlineFrame = null;
+        } else {
+            filledFrames = null;
+            freeFrames = null;
+            inlineFrame = new RawFrame();
+        }
+    }
+
+    /**
+     * Whether the stage converts on a thread of its own, the capture thread is then to copy the frames.
+     */
+    public boolean isThreaded() {
+        return inlineFrame == null;
+    }
+
+    public synchronized void start() {
+        if (!isThreaded() || thread != null) {
+            return;
+        }
+
+        thread = new Thread(this, "convert-" + camera.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns a free slot for the next frame, or <code>null</code> if every slot is still to be converted.
+     * Called on the capture thread.
+     */
+    public RawFrame acquire() {
+        return isThreaded() ? freeFrames.poll() : inlineFrame;
+    }
+
+    /**
+     * Hands a frame acquired from the stage to the taps and, if it is to be converted, posts it in the mailbox.
+     * Called on the capture thread.
+     */
+    public void submit(RawFrame frame) {
+        if (!isThreaded()) {
+            try {
+                convert(frame);
+            } finally {
+                frame.clear();
+            }
+        } else if (!filledFrames.offer(frame)) {
+            // not acquired from this stage
+            throw new IllegalStateException("Too many frames submitted.");
+        }
+    }
+
+    /**
+     * Stops the stage once the submitted frames have been handled.
+     */
+    public void close() {
+        Thread converter;
+        synchronized (this) {
+            stopped = true;
+            converter = thread;
+        }
+
+        if (converter != null) {
+            filledFrames.wake();
+            try {
+                converter.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        long timeout = TimeUnit.MILLISECONDS.toNanos(Util.CONVERT_POLL_MS);
+        while (true) {
+            RawFrame frame = filledFrames.take(timeout);
+            if (frame == null) {
+                if (stopped) {
+                    break;
+                }
+                continue;
+            }
+
+            try {
+                convert(frame);
+            } catch (RuntimeException e) {
+                logger.warn("Cannot convert a frame of camera '" + camera + "'.", e);
+            } finally {
+                frame.clear();
+                freeFrames.offer(frame);
+            }
+        }
+    }
+
+    private void convert(RawFrame frame) {
+        camera.tap(frame);
+        if (!frame.isConverted()) {
+            return;
+        }
+
+        Frame convertedFrame = camera.convertFrame(frame);
+        if (convertedFrame == null) {
+            return;
+        }
+
+        convertedFrame.setPostTime(System.nanoTime());
+        Frame replacedFrame = mailbox.post(convertedFrame);
+        if (replacedFrame != null) {
+            replacedFrame.recycle();
+        }
+    }
+
+    /**
+     * The frames waiting to be converted.
+     */
+    public int getOccupancy() {
+        return isThreaded() ? filledFrames.size() : 0;
+    }
+
+    public int getCapacity() {
+        // the ring may be larger, its capacity being a power of two
+        return isThreaded() ? Util.CONVERT_SLOTS : 0;
+    }
+
+    /**
+     * The frames dropped because the stage was behind the capture, finding no free slot.
+     */
+    public long getCaptureStalls() {
+        return isThreaded() ? freeFrames.getEmptyPolls() : 0;
+    }
+
+    /**
+     * The times the conversion had to wait for a frame, being ahead of the capture.
+     */
+    public long getConvertStalls() {
+        return isThreaded() ? filledFrames.getWaits() : 0;
+    }
+}
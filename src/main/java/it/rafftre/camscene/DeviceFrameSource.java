@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import com.sleepingdumpling.jvideoinput.Device;
+import com.sleepingdumpling.jvideoinput.VideoFrame;
+import com.sleepingdumpling.jvideoinput.VideoInput;
+import com.sleepingdumpling.jvideoinput.VideoInputException;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The frames of a capture device, through jvideoinput.
+ * <p>
+ * The source can be created from the name alone, as remembered from a previous run, before the devices are
+ * enumerated: opening it then waits for the {@link DeviceWatcher} to resolve the name.
+ * <p>
+ * When the native memory of the frames is found, {@link #getBuffer()} returns it and the frame is read in place,
+ * without the array of {@link VideoFrame#getRawData()}, see {@link NativeFrameBuffer}. It holds the frame until the
+ * next grab: the capture thread converts it before grabbing again, or copies it for the thread of the conversion.
+ */
+final class DeviceFrameSource implements FrameSource {
+
+    private final String name;
+    private Device device;
+    private boolean resolved;
+    private VideoInput videoInput;
+    private VideoFrame videoFrame;
+    private NativeFrameBuffer nativeBuffer;
+    private int probesLeft;
+    private ByteBuffer frameView;
+
+    public DeviceFrameSource(Device device) {
+        this(device.getNameStr(), device);
+    }
+
+    public DeviceFrameSource(String name, Device device) {
+        this.name = name;
+        this.device = device;
+        this.resolved = device != null;
+    }
+
+    /**
+     * Creates the source of a device not yet enumerated.
+     */
+    public DeviceFrameSource(String name) {
+        this(name, null);
+    }
+
+    public synchronized Device getDevice() {
+        return device;
+    }
+
+    /**
+     * Sets the device found with the name of this source, or <code>null</code> if it is not connected.
+     */
+    public synchronized void setDevice(Device device) {
+        this.device = device;
+        this.resolved = true;
+        notifyAll();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void open(int width, int height, int frameRate) throws IOException {
+        if (videoInput != null) {
+            return;
+        }
+
+        Device device = awaitDevice();
+        if (device == null) {
+            throw new IOException("Camera '" + name + "' is not connected.");
+        }
+
+        try {
+            videoInput = new VideoInput(width, height, frameRate, device);
+            nativeBuffer = null;
+            probesLeft = Util.NATIVE_BUFFER_PROBE_FRAMES;
+        } catch (VideoInputException e) {
+            throw new IOException("Cannot open camera '" + name + "'.", e);
+        }
+    }
+
+    private synchronized Device awaitDevice() throws IOException {
+        long deadline = System.currentTimeMillis() + Util.DEVICE_RESOLVE_TIMEOUT_MS;
+        try {
+            long remaining;
+            while (!resolved && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                wait(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for camera '" + name + "'.", e);
+        }
+        return device;
+    }
+
+    @Override
+    public void close() {
+        if (videoInput == null) {
+            return;
+        }
+
+        videoInput.stopSession();
+        videoInput = null;
+        videoFrame = null;
+        frameView = null;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return videoInput != null;
+    }
+
+    @Override
+    public boolean isBlocking() {
+        // jvideoinput does not tell whether getNextFrame waits for the driver
+        return true;
+    }
+
+    @Override
+    public boolean grab() {
+        if (videoInput == null) {
+            return false;
+        }
+
+        // jvideoinput fills the frame passed in, so the raw data array is not reallocated on every grab
+        VideoFrame vf = videoInput.getNextFrame(videoFrame);
+        if (vf == null) {
+            return false;
+        }
+
+        videoFrame = vf;
+        frameView = getView();
+        return true;
+    }
+
+    /**
+     * Returns the native memory of the grabbed frame, or <code>null</code> if it is not known.
+     */
+    private ByteBuffer getView() {
+        int length = videoFrame.getWidth() * videoFrame.getHeight() * 3;
+        if (nativeBuffer == null && probesLeft > 0) {
+            byte[] rawData = videoFrame.getRawData();
+            if (NativeFrameBuffer.isProbeable(rawData)) {
+                // a frame with some content decides: the native buffer is found now or never
+                probesLeft = 0;
+                nativeBuffer = rawData.length == length ? NativeFrameBuffer.probe(videoFrame, rawData) : null;
+            } else {
+                probesLeft--;
+            }
+            return null;
+        }
+
+        return nativeBuffer != null ? nativeBuffer.getView(videoFrame, length) : null;
+    }
+
+    @Override
+    public int getWidth() {
+        return videoFrame.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return videoFrame.getHeight();
+    }
+
+    @Override
+    public byte[] getData() {
+        return videoFrame.getRawData();
+    }
+
+    @Override
+    public ByteBuffer getBuffer() {
+        return frameView;
+    }
+
+    @Override
+    public BufferedImage getBufferedImage() {
+        return videoFrame.getBufferedImage();
+    }
+
+    @Override
+    public synchronized FrameSource copy() {
+        DeviceFrameSource copy = new DeviceFrameSource(name, device);
+        copy.resolved = resolved;
+        return copy;
+    }
+}
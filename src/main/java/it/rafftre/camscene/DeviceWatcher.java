@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import com.sleepingdumpling.jvideoinput.Device;
+import com.sleepingdumpling.jvideoinput.VideoInput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+/**
+ * Enumerates the capture devices on a thread of its own, since jvideoinput may take seconds to do it, and repeats
+ * the enumeration periodically to notice the devices plugged in or removed.
+ * <p>
+ * The names found are remembered between runs, so that the list of cameras can be shown before the first
+ * enumeration ends.
+ */
+final class DeviceWatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeviceWatcher.class);
+    private static final String CACHE_KEY = "devices";
+    private static final String CACHE_SEPARATOR = "\n";
+
+    /**
+     * Notified, on the thread of the watcher, when the set of devices connected changes.
+     */
+    interface Listener {
+
+        /**
+         * @param devices every device connected, by unique name
+         */
+        void devicesChanged(Map<String, Device> devices);
+    }
+
+    private final long periodSeconds;
+    private ScheduledExecutorService executor;
+    private Set<String> lastNames;
+    private boolean failing = false;
+
+    /**
+     * @param periodSeconds the seconds between the enumerations, 0 to enumerate only once
+     */
+    public DeviceWatcher(long periodSeconds) {
+        this.periodSeconds = Math.max(0, periodSeconds);
+    }
+
+    /**
+     * Returns the names of the devices found by the last enumeration of a previous run.
+     */
+    public static List<String> getCachedNames() {
+        String cached = getPreferences().get(CACHE_KEY, "");
+        if (cached.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(cached.split(CACHE_SEPARATOR));
+    }
+
+    public synchronized void start(final Listener listener) {
+        if (executor != null) {
+            return;
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread th = new Thread(r, "device-watcher");
+                th.setDaemon(true);
+                return th;
+            }
+        });
+
+        Runnable scan = new Runnable() {
+
+            @Override
+            public void run() {
+                scan(listener);
+            }
+        };
+        if (periodSeconds > 0) {
+            executor.scheduleWithFixedDelay(scan, 0, periodSeconds, TimeUnit.SECONDS);
+        } else {
+            executor.execute(scan);
+        }
+    }
+
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private void scan(Listener listener) {
+        long start = System.nanoTime();
+
+        Map<String, Device> devices = new LinkedHashMap<>();
+        try {
+            for (Device device : VideoInput.getVideoDevices()) {
+                devices.put(getUniqueName(devices.keySet(), device.getNameStr()), device);
+            }
+        } catch (RuntimeException e) {
+            // logged once, not on every period, until an enumeration succeeds again
+            if (!failing) {
+                logger.warn("Cannot enumerate the cameras.", e);
+                failing = true;
+            }
+            return;
+        }
+        failing = false;
+
+        logger.trace("Enumerated {} cameras in {} ms.", devices.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        Set<String> names = devices.keySet();
+        if (names.equals(lastNames)) {
+            return;
+        }
+
+        for (String name : names) {
+            if (lastNames == null || !lastNames.contains(name)) {
+                logger.info("Found camera '{}'.", name);
+            }
+        }
+        if (lastNames != null) {
+            for (String name : lastNames) {
+                if (!names.contains(name)) {
+                    logger.info("Camera '{}' removed.", name);
+                }
+            }
+        }
+        lastNames = new HashSet<>(names);
+        saveCache(names);
+
+        listener.devicesChanged(devices);
+    }
+
+    private static Preferences getPreferences() {
+        return Preferences.userNodeForPackage(DeviceWatcher.class);
+    }
+
+    private static void saveCache(Set<String> names) {
+        StringBuilder sb = new StringBuilder();
+        for (String name : names) {
+            if (sb.length() > 0) {
+                sb.append(CACHE_SEPARATOR);
+            }
+            sb.append(name);
+        }
+
+        Preferences preferences = getPreferences();
+        preferences.put(CACHE_KEY, sb.toString());
+        try {
+            preferences.flush();
+        } catch (BackingStoreException e) {
+            logger.debug("Cannot save the names of the cameras.", e);
+        }
+    }
+
+    /**
+     * Returns the name of the device, followed by a counter if other devices connected have the same name.
+     */
+    static String getUniqueName(Collection<String> names, String name) {
+        String uniqueName = name;
+        for (int i = 2; names.contains(uniqueName); i++) {
+            uniqueName = name + " #" + i;
+        }
+        return uniqueName;
+    }
+}
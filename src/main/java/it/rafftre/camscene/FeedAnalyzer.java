@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Watches the grabbed frames of a camera for a feed gone wrong: black, uniform (e.g. a plain color card) or frozen
+ * on the same picture, and for scene cuts. Every frame is reduced to a grid of luma averages, sampling the packed
+ * RGB bytes at a few evenly spaced points per cell, and compared with the grid of the previous frame.
+ * <p>
+ * An alert is raised when its condition lasts {@link Util#FEED_ALERT_DELAY_NANOS} and cleared when it has been
+ * absent for {@link Util#FEED_CLEAR_DELAY_NANOS}, so that a noisy feed does not flap. Nothing is allocated per frame.
+ * <p>
+ * Fed by the taps of a {@link ConvertStage}, one frame at a time: on the thread of the stage, or on the capture
+ * thread when the stage has none, which in a {@link CaptureEngine} is any of its workers in turn, each step of a
+ * feed happening before the next one. The state of the frames is then never used by two threads at once and needs
+ * no locking; only the alert and the scene cuts are read from other threads.
+ */
+final class FeedAnalyzer {
+
+    enum Alert {
+        NONE, FROZEN, UNIFORM, BLACK
+    }
+
+    static final int GRID_COLUMNS = 64;
+    static final int GRID_ROWS = 48;
+    static final int CELL_SAMPLES = 4;
+    static final int CELL_SCALE = CELL_SAMPLES * CELL_SAMPLES;
+    static final int BLACK_LUMA = 24;
+    static final int BLACK_MAX_LUMA = 48;
+    static final int UNIFORM_RANGE = 12;
+    static final int FROZEN_DIFF_CENTS = 10;
+    static final int SCENE_CUT_DIFF_CENTS = 3000;
+
+    private static final Logger logger = LoggerFactory.getLogger(FeedAnalyzer.class);
+
+    private final String name;
+    private final int cellCount = GRID_COLUMNS * GRID_ROWS;
+    private int[] cells = new int[cellCount];
+    private int[] previousCells = new int[cellCount];
+    private final int[] sampleColumns = new int[GRID_COLUMNS * CELL_SAMPLES];
+    private final int[] sampleRows = new int[GRID_ROWS * CELL_SAMPLES];
+    private int width;
+    private int height;
+    private boolean hasPrevious = false;
+    private boolean cutInProgress = false;
+
+    private Alert pendingAlert = Alert.NONE;
+    private long pendingSince;
+    private volatile Alert alert = Alert.NONE;
+    private volatile long sceneCuts = 0;
+    private volatile long lastSceneCutTime = 0;
+
+    public FeedAnalyzer(String name) {
+        this.name = name;
+    }
+
+    public Alert getAlert() {
+        return alert;
+    }
+
+    public long getSceneCuts() {
+        return sceneCuts;
+    }
+
+    /**
+     * The time, as given by {@link System#nanoTime()}, of the last scene cut, 0 if none.
+     */
+    public long getLastSceneCutTime() {
+        return lastSceneCutTime;
+    }
+
+    /**
+     * Analyzes a frame of packed RGB bytes.
+     *
+     * @param time the grab time as given by {@link System#nanoTime()}
+     */
+    public void analyze(ByteBuffer rgbData, int width, int height, long time) {
+        if (width < GRID_COLUMNS || height < GRID_ROWS) {
+            return;
+        }
+        if (width != this.width || height != this.height) {
+            prepare(width, height);
+        }
+
+        int[] current = previousCells;
+        previousCells = cells;
+        cells = current;
+        sampleLuma(rgbData, current);
+
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        long sum = 0;
+        long diffSum = 0;
+        int[] previous = previousCells;
+        for (int i = 0; i < cellCount; i++) {
+            int cell = current[i];
+            sum += cell;
+            min = Math.min(min, cell);
+            max = Math.max(max, cell);
+            diffSum += Math.abs(cell - previous[i]);
+        }
+
+        // in hundredths of luma level, per cell
+        long diffCents = diffSum * 100 / ((long) cellCount * CELL_SCALE);
+        boolean compared = hasPrevious;
+        hasPrevious = true;
+
+        Alert observed = Alert.NONE;
+        if (sum < (long) BLACK_LUMA * CELL_SCALE * cellCount && max < BLACK_MAX_LUMA * CELL_SCALE) {
+            observed = Alert.BLACK;
+        } else if (max - min < UNIFORM_RANGE * CELL_SCALE) {
+            observed = Alert.UNIFORM;
+        } else if (compared && diffCents < FROZEN_DIFF_CENTS) {
+            observed = Alert.FROZEN;
+        }
+        updateAlert(observed, time);
+
+        boolean cut = compared && diffCents >= SCENE_CUT_DIFF_CENTS;
+        if (cut && !cutInProgress) {
+            sceneCuts++;
+            lastSceneCutTime = time;
+            logger.info("Camera '{}': scene cut.", name);
+        }
+        cutInProgress = cut;
+    }
+
+    private void updateAlert(Alert observed, long time) {
+        if (observed != pendingAlert) {
+            pendingAlert = observed;
+            pendingSince = time;
+        }
+        if (pendingAlert == alert) {
+            return;
+        }
+
+        long delay = pendingAlert == Alert.NONE ? Util.FEED_CLEAR_DELAY_NANOS : Util.FEED_ALERT_DELAY_NANOS;
+        if (time - pendingSince >= delay) {
+            alert = pendingAlert;
+            if (alert == Alert.NONE) {
+                logger.info("Camera '{}': feed back to normal.", name);
+            } else {
+                logger.warn("Camera '{}': feed {}.", name, alert.name().toLowerCase());
+            }
+        }
+    }
+
+    private void sampleLuma(ByteBuffer rgbData, int[] target) {
+        int samplesPerRow = sampleColumns.length;
+        for (int sy = 0; sy < sampleRows.length; sy++) {
+            int rowOffset = sampleRows[sy];
+            int cellRow = (sy / CELL_SAMPLES) * GRID_COLUMNS;
+            if (sy % CELL_SAMPLES == 0) {
+                for (int c = 0; c < GRID_COLUMNS; c++) {
+                    target[cellRow + c] = 0;
+                }
+            }
+
+            for (int sx = 0; sx < samplesPerRow; sx++) {
+                int i = rowOffset + sampleColumns[sx];
+                // BT.601 luma in fixed point
+                target[cellRow + sx / CELL_SAMPLES] += (77 * (rgbData.get(i) & 0xff)
+                        + 150 * (rgbData.get(i + 1) & 0xff) + 29 * (rgbData.get(i + 2) & 0xff)) >> 8;
+            }
+        }
+    }
+
+    private void prepare(int width, int height) {
+        this.width = width;
+        this.height = height;
+        hasPrevious = false;
+        cutInProgress = false;
+
+        // the samples are spread evenly, in the middle of their spans
+        for (int sx = 0; sx < sampleColumns.length; sx++) {
+            sampleColumns[sx] = ((2 * sx + 1) * width / (2 * sampleColumns.length)) * 3;
+        }
+        for (int sy = 0; sy < sampleRows.length; sy++) {
+            sampleRows[sy] = ((2 * sy + 1) * height / (2 * sampleRows.length)) * width * 3;
+        }
+    }
+}
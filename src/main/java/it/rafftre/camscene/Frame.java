@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * A reusable frame buffer handed out by a {@link FramePool}, to which it goes back with {@link #recycle()}.
+ * A frame carries either the raw RGB bytes of the grabbed video frame or the image obtained converting them, or in
+ * the {@link RenderMode#TILES} mode the ARGB pixels and which tiles of them have changed.
+ */
+final class Frame {
+
+    private final FramePool pool;
+    private final int width;
+    private final int height;
+    private final byte[] rgbData;
+    private final BufferedImage ownImage;
+    private final int[] argbData;
+    private final boolean[] changedTiles;
+    private int changedTileCount;
+    private TileDiff tileDiff;
+    private long sequence;
+    private BufferedImage image;
+    private int sourceWidth;
+    private int sourceHeight;
+    private long timestamp;
+    private long postTime;
+
+    public Frame(FramePool pool, int width, int height, RenderMode renderMode) {
+        this.pool = pool;
+        this.width = width;
+        this.height = height;
+        if (renderMode == RenderMode.DIRECT) {
+            this.rgbData = new byte[width * height * 3];
+            this.ownImage = null;
+            this.argbData = null;
+            this.changedTiles = null;
+        } else if (renderMode == RenderMode.TILES) {
+            this.rgbData = null;
+            this.ownImage = null;
+            this.argbData = new int[width * height];
+            this.changedTiles = new boolean[TileDiff.getTileCount(width, height, Util.RENDER_TILE_SIZE)];
+        } else {
+            this.rgbData = null;
+            this.ownImage = Util.createRenderingBufferedImage(width, height);
+            this.argbData = Util.isIntRgbImage(ownImage)
+                    ? ((DataBufferInt) ownImage.getRaster().getDataBuffer()).getData()
+                    : null;
+            this.changedTiles = null;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * The width of the grabbed video frame, larger than the frame width when scaled down for display.
+     */
+    public int getSourceWidth() {
+        return sourceWidth;
+    }
+
+    public int getSourceHeight() {
+        return sourceHeight;
+    }
+
+    public void setSourceSize(int sourceWidth, int sourceHeight) {
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+    }
+
+    public byte[] getRgbData() {
+        return rgbData;
+    }
+
+    public BufferedImage getOwnImage() {
+        return ownImage;
+    }
+
+    public int[] getArgbData() {
+        return argbData;
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    public void setImage(BufferedImage image) {
+        this.image = image;
+    }
+
+    /**
+     * The time, as given by {@link System#nanoTime()}, at which the frame has been grabbed.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * The time, as given by {@link System#nanoTime()}, at which the frame has been handed over for display.
+     */
+    public long getPostTime() {
+        return postTime;
+    }
+
+    public void setPostTime(long postTime) {
+        this.postTime = postTime;
+    }
+
+    /**
+     * Whether every tile has changed since the previous frame, row by row; <code>null</code> if the frame is not
+     * compared with the previous one.
+     */
+    public boolean[] getChangedTiles() {
+        return changedTiles;
+    }
+
+    public int getChangedTileCount() {
+        return changedTileCount;
+    }
+
+    /**
+     * The comparison giving the changed tiles, with their size.
+     */
+    public TileDiff getTileDiff() {
+        return tileDiff;
+    }
+
+    /**
+     * Sets how many tiles have changed since the previous frame of the sequence, once set in
+     * {@link #getChangedTiles()}.
+     */
+    public void setChangedTiles(TileDiff tileDiff, int changedTileCount, long sequence) {
+        this.tileDiff = tileDiff;
+        this.changedTileCount = changedTileCount;
+        this.sequence = sequence;
+    }
+
+    /**
+     * The number of the frame among the compared ones: when a frame is missing, the changed tiles of the next
+     * one are not enough to update the image.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public boolean isDirect() {
+        return image == null;
+    }
+
+    public void recycle() {
+        pool.release(this);
+    }
+}
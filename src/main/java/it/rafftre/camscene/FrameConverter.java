@@ -0,0 +1,410 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Converts packed RGB bytes in ARGB ints, at full size or scaled down.
+ * Large frames are split in stripes of rows converted in parallel, small ones are converted on the calling thread.
+ * At full size the output is the same of {@link #addAlphaChannel(byte[], int, int[])} in every case.
+ * <p>
+ * The frames can also be read in place from a buffer, such as the native memory filled by the device, leaving its
+ * position untouched; a buffer wrapping an array is read as the array. When the rows of a buffer start at a multiple
+ * of four bytes, that is when the width is a multiple of four, the bytes are read as ints, four pixels in three.
+ */
+final class FrameConverter {
+
+    static final int PARALLEL_THRESHOLD_PIXELS = 640 * 480;
+    static final int STRIPE_PIXELS = 128 * 1024;
+
+    private static final ForkJoinPool pool = new ForkJoinPool();
+
+    // the rows read from a buffer, one for every converting thread, grown to the widest frame
+    private static final ThreadLocal<byte[]> rows = new ThreadLocal<byte[]>() {
+
+        @Override
+        protected byte[] initialValue() {
+            return new byte[0];
+        }
+    };
+    private static final ThreadLocal<int[]> wordRows = new ThreadLocal<int[]>() {
+
+        @Override
+        protected int[] initialValue() {
+            return new int[0];
+        }
+    };
+
+    private FrameConverter() {
+    }
+
+    public static void convert(byte[] rgbBytes, int[] argbInts, int width, int height) {
+        if (rgbBytes.length < width * height * 3) {
+            addAlphaChannel(rgbBytes, rgbBytes.length, argbInts);
+        } else if (width * height < PARALLEL_THRESHOLD_PIXELS || pool.getParallelism() < 2) {
+            convertRows(rgbBytes, argbInts, width, 0, height);
+        } else {
+            pool.invoke(new ConvertTask(rgbBytes, null, argbInts, width, 0, height));
+        }
+    }
+
+    /**
+     * Converts a full frame of packed RGB bytes read in place from a buffer.
+     */
+    public static void convert(ByteBuffer rgbBuffer, int[] argbInts, int width, int height) {
+        if (rgbBuffer.hasArray() && rgbBuffer.arrayOffset() == 0) {
+            convert(rgbBuffer.array(), argbInts, width, height);
+        } else if (width * height < PARALLEL_THRESHOLD_PIXELS || pool.getParallelism() < 2) {
+            convertRows(rgbBuffer, argbInts, width, 0, height);
+        } else {
+            pool.invoke(new ConvertTask(null, rgbBuffer, argbInts, width, 0, height));
+        }
+    }
+
+    /**
+     * Scales a frame down to the target size of the map, as described in {@link ScaleMap}, and converts it to ARGB
+     * in the same pass.
+     */
+    public static void scale(byte[] rgbBytes, ScaleMap map, int[] argbInts) {
+        scale(rgbBytes, map, argbInts, null);
+    }
+
+    /**
+     * Scales a frame down to the target size of the map like {@link #scale(byte[], ScaleMap, int[])}, keeping it
+     * as packed RGB bytes.
+     */
+    public static void scale(byte[] rgbBytes, ScaleMap map, byte[] rgbTarget) {
+        scale(rgbBytes, map, null, rgbTarget);
+    }
+
+    /**
+     * Scales a frame read in place from a buffer like {@link #scale(byte[], ScaleMap, int[])}.
+     */
+    public static void scale(ByteBuffer rgbBuffer, ScaleMap map, int[] argbInts) {
+        scale(rgbBuffer, map, argbInts, null);
+    }
+
+    /**
+     * Scales a frame read in place from a buffer like {@link #scale(byte[], ScaleMap, byte[])}.
+     */
+    public static void scale(ByteBuffer rgbBuffer, ScaleMap map, byte[] rgbTarget) {
+        scale(rgbBuffer, map, null, rgbTarget);
+    }
+
+    public static void addAlphaChannel(byte[] rgbBytes, int bytesLen, int[] argbInts) {
+        for (int i = 0, j = 0; i < bytesLen; i += 3, j++) {
+            argbInts[j] = ((byte) 0xff) << 24 |        // Alpha
+                    (rgbBytes[i] << 16) & (0xff0000) |        // Red
+                    (rgbBytes[i + 1] << 8) & (0xff00) |        // Green
+                    (rgbBytes[i + 2]) & (0xff);                // Blue
+        }
+    }
+
+    static void convertRows(byte[] rgbBytes, int[] argbInts, int width, int fromRow, int toRow) {
+        int j = fromRow * width;
+        int end = toRow * width;
+        int i = j * 3;
+
+        // four pixels (three ints of source) per iteration
+        for (int unrolledEnd = end - 3; j < unrolledEnd; i += 12, j += 4) {
+            argbInts[j] = 0xff000000 | (rgbBytes[i] & 0xff) << 16 | (rgbBytes[i + 1] & 0xff) << 8
+                    | (rgbBytes[i + 2] & 0xff);
+            argbInts[j + 1] = 0xff000000 | (rgbBytes[i + 3] & 0xff) << 16 | (rgbBytes[i + 4] & 0xff) << 8
+                    | (rgbBytes[i + 5] & 0xff);
+            argbInts[j + 2] = 0xff000000 | (rgbBytes[i + 6] & 0xff) << 16 | (rgbBytes[i + 7] & 0xff) << 8
+                    | (rgbBytes[i + 8] & 0xff);
+            argbInts[j + 3] = 0xff000000 | (rgbBytes[i + 9] & 0xff) << 16 | (rgbBytes[i + 10] & 0xff) << 8
+                    | (rgbBytes[i + 11] & 0xff);
+        }
+        for (; j < end; i += 3, j++) {
+            argbInts[j] = 0xff000000 | (rgbBytes[i] & 0xff) << 16 | (rgbBytes[i + 1] & 0xff) << 8
+                    | (rgbBytes[i + 2] & 0xff);
+        }
+    }
+
+    private static void scale(byte[] rgbBytes, ScaleMap map, int[] argbInts, byte[] rgbTarget) {
+        if (map.targetWidth * map.targetHeight < PARALLEL_THRESHOLD_PIXELS || pool.getParallelism() < 2) {
+            scaleRows(rgbBytes, map, argbInts, rgbTarget, 0, map.targetHeight);
+        } else {
+            pool.invoke(new ScaleTask(rgbBytes, null, map, argbInts, rgbTarget, 0, map.targetHeight));
+        }
+    }
+
+    private static void scale(ByteBuffer rgbBuffer, ScaleMap map, int[] argbInts, byte[] rgbTarget) {
+        if (rgbBuffer.hasArray() && rgbBuffer.arrayOffset() == 0) {
+            scale(rgbBuffer.array(), map, argbInts, rgbTarget);
+        } else if (map.targetWidth * map.targetHeight < PARALLEL_THRESHOLD_PIXELS || pool.getParallelism() < 2) {
+            scaleRows(rgbBuffer, map, argbInts, rgbTarget, 0, map.targetHeight);
+        } else {
+            pool.invoke(new ScaleTask(null, rgbBuffer, map, argbInts, rgbTarget, 0, map.targetHeight));
+        }
+    }
+
+    static void scaleRows(byte[] rgbBytes, ScaleMap map, int[] argbInts, byte[] rgbTarget, int fromRow, int toRow) {
+        int[] columnSamples = map.columnSamples;
+        int[] rowSamples = map.rowSamples;
+
+        for (int ty = fromRow; ty < toRow; ty++) {
+            int row0 = rowSamples[ty * 2];
+            int row1 = rowSamples[ty * 2 + 1];
+
+            for (int tx = 0, j = ty * map.targetWidth; tx < map.targetWidth; tx++, j++) {
+                int column0 = columnSamples[tx * 2];
+                int column1 = columnSamples[tx * 2 + 1];
+                int i00 = row0 + column0;
+                int i01 = row0 + column1;
+                int i10 = row1 + column0;
+                int i11 = row1 + column1;
+
+                int r = ((rgbBytes[i00] & 0xff) + (rgbBytes[i01] & 0xff)
+                        + (rgbBytes[i10] & 0xff) + (rgbBytes[i11] & 0xff) + 2) >> 2;
+                int g = ((rgbBytes[i00 + 1] & 0xff) + (rgbBytes[i01 + 1] & 0xff)
+                        + (rgbBytes[i10 + 1] & 0xff) + (rgbBytes[i11 + 1] & 0xff) + 2) >> 2;
+                int b = ((rgbBytes[i00 + 2] & 0xff) + (rgbBytes[i01 + 2] & 0xff)
+                        + (rgbBytes[i10 + 2] & 0xff) + (rgbBytes[i11 + 2] & 0xff) + 2) >> 2;
+
+                if (argbInts != null) {
+                    argbInts[j] = 0xff000000 | r << 16 | g << 8 | b;
+                } else {
+                    rgbTarget[j * 3] = (byte) r;
+                    rgbTarget[j * 3 + 1] = (byte) g;
+                    rgbTarget[j * 3 + 2] = (byte) b;
+                }
+            }
+        }
+    }
+
+    static void convertRows(ByteBuffer rgbBuffer, int[] argbInts, int width, int fromRow, int toRow) {
+        if (width % 4 == 0) {
+            convertWordRows(rgbBuffer, argbInts, width, fromRow, toRow);
+            return;
+        }
+
+        // a row at a time through a small array, which stays in cache: faster than a get for every byte
+        ByteBuffer view = rgbBuffer.duplicate();
+        int rowLength = width * 3;
+        byte[] row = rows.get();
+        if (row.length < rowLength) {
+            row = new byte[rowLength];
+            rows.set(row);
+        }
+        view.clear().position(fromRow * rowLength);
+        for (int y = fromRow; y < toRow; y++) {
+            view.get(row, 0, rowLength);
+            for (int i = 0, j = y * width; i < rowLength; i += 3, j++) {
+                argbInts[j] = 0xff000000 | (row[i] & 0xff) << 16 | (row[i + 1] & 0xff) << 8 | (row[i + 2] & 0xff);
+            }
+        }
+    }
+
+    private static void convertWordRows(ByteBuffer rgbBuffer, int[] argbInts, int width, int fromRow, int toRow) {
+        ByteBuffer bytes = rgbBuffer.duplicate();
+        bytes.clear();
+        IntBuffer view = bytes.order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+        int rowLength = width * 3 / 4;
+        int[] row = wordRows.get();
+        if (row.length < rowLength) {
+            row = new int[rowLength];
+            wordRows.set(row);
+        }
+        view.position(fromRow * rowLength);
+        for (int y = fromRow; y < toRow; y++) {
+            view.get(row, 0, rowLength);
+            // RGBR GBRG BRGB
+            for (int i = 0, j = y * width; i < rowLength; i += 3, j += 4) {
+                int word0 = row[i];
+                int word1 = row[i + 1];
+                int word2 = row[i + 2];
+                argbInts[j] = 0xff000000 | word0 >>> 8;
+                argbInts[j + 1] = 0xff000000 | (word0 & 0xff) << 16 | word1 >>> 16;
+                argbInts[j + 2] = 0xff000000 | (word1 & 0xffff) << 8 | word2 >>> 24;
+                argbInts[j + 3] = 0xff000000 | word2 & 0xffffff;
+            }
+        }
+    }
+
+    static void scaleRows(ByteBuffer rgbBuffer, ScaleMap map, int[] argbInts, byte[] rgbTarget, int fromRow,
+                          int toRow) {
+        int[] columnSamples = map.columnSamples;
+        int[] rowSamples = map.rowSamples;
+
+        for (int ty = fromRow; ty < toRow; ty++) {
+            int row0 = rowSamples[ty * 2];
+            int row1 = rowSamples[ty * 2 + 1];
+
+            for (int tx = 0, j = ty * map.targetWidth; tx < map.targetWidth; tx++, j++) {
+                int column0 = columnSamples[tx * 2];
+                int column1 = columnSamples[tx * 2 + 1];
+                int i00 = row0 + column0;
+                int i01 = row0 + column1;
+                int i10 = row1 + column0;
+                int i11 = row1 + column1;
+
+                int r = ((rgbBuffer.get(i00) & 0xff) + (rgbBuffer.get(i01) & 0xff)
+                        + (rgbBuffer.get(i10) & 0xff) + (rgbBuffer.get(i11) & 0xff) + 2) >> 2;
+                int g = ((rgbBuffer.get(i00 + 1) & 0xff) + (rgbBuffer.get(i01 + 1) & 0xff)
+                        + (rgbBuffer.get(i10 + 1) & 0xff) + (rgbBuffer.get(i11 + 1) & 0xff) + 2) >> 2;
+                int b = ((rgbBuffer.get(i00 + 2) & 0xff) + (rgbBuffer.get(i01 + 2) & 0xff)
+                        + (rgbBuffer.get(i10 + 2) & 0xff) + (rgbBuffer.get(i11 + 2) & 0xff) + 2) >> 2;
+
+                if (argbInts != null) {
+                    argbInts[j] = 0xff000000 | r << 16 | g << 8 | b;
+                } else {
+                    rgbTarget[j * 3] = (byte) r;
+                    rgbTarget[j * 3 + 1] = (byte) g;
+                    rgbTarget[j * 3 + 2] = (byte) b;
+                }
+            }
+        }
+    }
+
+    /**
+     * Where to sample the source when scaling a frame down, computed once for a source and a target size: every
+     * target pixel is the average of a 2x2 grid of source pixels spread evenly over the area it covers. Down to half
+     * the size this is a box filter, below it an approximation costing the same for any ratio.
+     */
+    static final class ScaleMap {
+
+        final int width;
+        final int height;
+        final int targetWidth;
+        final int targetHeight;
+        /** The byte offsets in a source row of the two sample columns of every target column. */
+        final int[] columnSamples;
+        /** The byte offsets of the two sample rows of every target row. */
+        final int[] rowSamples;
+
+        public ScaleMap(int width, int height, int targetWidth, int targetHeight) {
+            this.width = width;
+            this.height = height;
+            this.targetWidth = targetWidth;
+            this.targetHeight = targetHeight;
+
+            columnSamples = new int[targetWidth * 2];
+            for (int x = 0; x < columnSamples.length; x++) {
+                columnSamples[x] = getSample(x, width, targetWidth) * 3;
+            }
+            rowSamples = new int[targetHeight * 2];
+            for (int y = 0; y < rowSamples.length; y++) {
+                rowSamples[y] = getSample(y, height, targetHeight) * width * 3;
+            }
+        }
+
+        public boolean matches(int width, int height, int targetWidth, int targetHeight) {
+            return this.width == width && this.height == height
+                    && this.targetWidth == targetWidth && this.targetHeight == targetHeight;
+        }
+
+        /**
+         * The source pixel of a sample, at a quarter and three quarters of the span of its target pixel.
+         */
+        private static int getSample(int sample, int size, int targetSize) {
+            int target = sample / 2;
+            long start = (long) target * size / targetSize;
+            long end = (long) (target + 1) * size / targetSize;
+            long span = end - start;
+            return (int) Math.min(end - 1, start + (span * (sample % 2 == 0 ? 1 : 3)) / 4);
+        }
+    }
+
+    private static class ConvertTask extends RecursiveAction {
+
+        private final byte[] rgbBytes;
+        private final ByteBuffer rgbBuffer;
+        private final int[] argbInts;
+        private final int width;
+        private final int fromRow;
+        private final int toRow;
+
+        public ConvertTask(byte[] rgbBytes, ByteBuffer rgbBuffer, int[] argbInts, int width, int fromRow,
+                           int toRow) {
+            this.rgbBytes = rgbBytes;
+            this.rgbBuffer = rgbBuffer;
+            this.argbInts = argbInts;
+            this.width = width;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = toRow - fromRow;
+            if (rows < 2 || rows * width <= STRIPE_PIXELS) {
+                if (rgbBytes != null) {
+                    convertRows(rgbBytes, argbInts, width, fromRow, toRow);
+                } else {
+                    convertRows(rgbBuffer, argbInts, width, fromRow, toRow);
+                }
+                return;
+            }
+
+            int middleRow = fromRow + rows / 2;
+            invokeAll(new ConvertTask(rgbBytes, rgbBuffer, argbInts, width, fromRow, middleRow),
+                    new ConvertTask(rgbBytes, rgbBuffer, argbInts, width, middleRow, toRow));
+        }
+    }
+
+    private static class ScaleTask extends RecursiveAction {
+
+        private final byte[] rgbBytes;
+        private final ByteBuffer rgbBuffer;
+        private final ScaleMap map;
+        private final int[] argbInts;
+        private final byte[] rgbTarget;
+        private final int fromRow;
+        private final int toRow;
+
+        public ScaleTask(byte[] rgbBytes, ByteBuffer rgbBuffer, ScaleMap map, int[] argbInts, byte[] rgbTarget,
+                         int fromRow, int toRow) {
+            this.rgbBytes = rgbBytes;
+            this.rgbBuffer = rgbBuffer;
+            this.map = map;
+            this.argbInts = argbInts;
+            this.rgbTarget = rgbTarget;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = toRow - fromRow;
+            if (rows < 2 || rows * map.targetWidth <= STRIPE_PIXELS) {
+                if (rgbBytes != null) {
+                    scaleRows(rgbBytes, map, argbInts, rgbTarget, fromRow, toRow);
+                } else {
+                    scaleRows(rgbBuffer, map, argbInts, rgbTarget, fromRow, toRow);
+                }
+                return;
+            }
+
+            int middleRow = fromRow + rows / 2;
+            invokeAll(new ScaleTask(rgbBytes, rgbBuffer, map, argbInts, rgbTarget, fromRow, middleRow),
+                    new ScaleTask(rgbBytes, rgbBuffer, map, argbInts, rgbTarget, middleRow, toRow));
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands the grabbed frames over to the JavaFX application thread keeping only the latest one:
+ * a frame posted while the previous one is still pending replaces it.
+ */
+final class FrameMailbox {
+
+    private final AtomicReference<Frame> slot = new AtomicReference<>();
+    private final AtomicLong postedFrames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong renderedFrames = new AtomicLong();
+
+    /**
+     * Returns the replaced frame, never displayed, or <code>null</code>.
+     */
+    public Frame post(Frame frame) {
+        postedFrames.incrementAndGet();
+
+        Frame replaced = slot.getAndSet(frame);
+        if (replaced != null) {
+            droppedFrames.incrementAndGet();
+        }
+
+        return replaced;
+    }
+
+    public Frame take() {
+        return slot.getAndSet(null);
+    }
+
+    public void frameRendered() {
+        renderedFrames.incrementAndGet();
+    }
+
+    public long getPostedFrames() {
+        return postedFrames.get();
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    public long getRenderedFrames() {
+        return renderedFrames.get();
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces a capture loop on absolute deadlines, one every frame interval from the start, so the timing error of an
+ * iteration is not carried over to the following ones. When the loop is late by less than an interval it catches
+ * up grabbing immediately, when it is late by one or more intervals the missed frames are skipped.
+ * <p>
+ * The intervals between delivered frames are collected in one second windows; when the device delivers less than
+ * the requested rate for a few windows in a row the pacing rate is lowered to the delivered one, and raised again
+ * step by step while the device keeps up. The lowest rate that failed is remembered: the steps up stop below it,
+ * and go past it only after the device has kept up for a while, twice as long after every failure. It is forgotten
+ * when the device keeps up past it.
+ * <p>
+ * An idle loop is paced at {@link Util#IDLE_FRAME_RATE}, without adapting, and can be woken from any thread.
+ * <p>
+ * A loop that does not wait on its own thread, such as a feed of the {@link CaptureEngine}, asks for its deadlines
+ * with {@link #nextDeadline()} and is woken through a {@link #setWaker(Runnable) waker}.
+ * <p>
+ * Must be used by the capture thread only, except for {@link #wake()} and the statistics getters.
+ */
+final class FramePacer {
+
+    private static final Logger logger = LoggerFactory.getLogger(FramePacer.class);
+
+    static final int ADAPT_WINDOWS = 3;
+    static final double SLOW_DELIVERY_RATIO = 0.9;
+    static final double FULL_DELIVERY_RATIO = 0.97;
+    static final int MAX_PROBE_BACKOFF = 5;
+
+    private int requestedFrameRate;
+    private final boolean adaptive;
+    private final IntervalHistogram intervals = new IntervalHistogram();
+    private final IntervalHistogram jitters = new IntervalHistogram();
+
+    private int frameRate;
+    private int activeFrameRate;
+    private boolean idle = false;
+    private long interval;
+    private long nextDeadline;
+    private long lastFrameTime = -1;
+    private long windowStart;
+    private long windowFrames;
+    private int slowWindows;
+    private int fullWindows;
+    private int failedFrameRate;
+    private int failures;
+    private volatile Thread thread;
+    private volatile boolean woken = false;
+    private volatile Runnable waker;
+
+    private volatile long skippedFrames;
+    private volatile double deliveredFrameRate;
+    private volatile long intervalP50;
+    private volatile long intervalP99;
+    private volatile long intervalMax;
+    private volatile long jitterP99;
+    private volatile long jitterMax;
+
+    public FramePacer(int requestedFrameRate, boolean adaptive) {
+        this.requestedFrameRate = requestedFrameRate;
+        this.adaptive = adaptive;
+        setFrameRate(requestedFrameRate);
+    }
+
+    public void start() {
+        thread = Thread.currentThread();
+        long now = System.nanoTime();
+        nextDeadline = now + interval;
+        windowStart = now;
+        lastFrameTime = -1;
+    }
+
+    public void frameDelivered() {
+        long now = System.nanoTime();
+        if (lastFrameTime != -1) {
+            long frameInterval = now - lastFrameTime;
+            intervals.record(frameInterval);
+            jitters.record(Math.abs(frameInterval - interval));
+        }
+        lastFrameTime = now;
+        windowFrames++;
+
+        if (now - windowStart >= Util.ONE_SECOND_IN_NANOS) {
+            closeWindow(now);
+        }
+    }
+
+    public void awaitNextFrame() {
+        long now = System.nanoTime();
+        skipMissedFrames(now);
+
+        while (!woken && (now = System.nanoTime()) < nextDeadline) {
+            LockSupport.parkNanos(nextDeadline - now);
+        }
+        if (woken) {
+            woken = false;
+            nextDeadline = System.nanoTime();
+        }
+        nextDeadline += interval;
+    }
+
+    /**
+     * Returns the time, as given by {@link System#nanoTime()}, at which the next frame is to be grabbed, for a
+     * loop that does not wait in {@link #awaitNextFrame()}.
+     */
+    public long nextDeadline() {
+        skipMissedFrames(System.nanoTime());
+
+        long deadline = nextDeadline;
+        nextDeadline += interval;
+        return deadline;
+    }
+
+    private void skipMissedFrames(long now) {
+        long late = now - nextDeadline;
+        if (late >= interval) {
+            long missedFrames = late / interval;
+            skippedFrames += missedFrames;
+            nextDeadline += missedFrames * interval;
+        }
+    }
+
+    /**
+     * Ends the current wait, so that the loop notices a change (e.g. it is stopped or no longer idle) right away.
+     */
+    public void wake() {
+        Runnable loopWaker = waker;
+        if (loopWaker != null) {
+            loopWaker.run();
+            return;
+        }
+
+        woken = true;
+        Thread pacedThread = thread;
+        if (pacedThread != null) {
+            LockSupport.unpark(pacedThread);
+        }
+    }
+
+    /**
+     * Sets what wakes up the loop instead of {@link #awaitNextFrame()}, <code>null</code> for the waiting thread.
+     */
+    public void setWaker(Runnable waker) {
+        this.waker = waker;
+    }
+
+    public boolean isIdle() {
+        return idle;
+    }
+
+    /**
+     * Switches between the idle rate and the rate in use before idling, restarting the deadlines.
+     */
+    public void setIdle(boolean idle) {
+        if (idle == this.idle) {
+            return;
+        }
+
+        this.idle = idle;
+        if (idle) {
+            activeFrameRate = frameRate;
+            setFrameRate(Util.IDLE_FRAME_RATE);
+        } else {
+            setFrameRate(activeFrameRate);
+        }
+        slowWindows = 0;
+        fullWindows = 0;
+        nextDeadline = System.nanoTime() + interval;
+    }
+
+    public int getRequestedFrameRate() {
+        return requestedFrameRate;
+    }
+
+    /**
+     * Changes the rate to pace at, e.g. to lower the load; the adaptation to the device starts again from it.
+     */
+    public void setRequestedFrameRate(int requestedFrameRate) {
+        if (requestedFrameRate == this.requestedFrameRate) {
+            return;
+        }
+
+        this.requestedFrameRate = requestedFrameRate;
+        if (idle) {
+            activeFrameRate = requestedFrameRate;
+        } else {
+            setFrameRate(requestedFrameRate);
+            nextDeadline = System.nanoTime() + interval;
+        }
+        slowWindows = 0;
+        fullWindows = 0;
+        failedFrameRate = 0;
+        failures = 0;
+    }
+
+    public int getFrameRate() {
+        return frameRate;
+    }
+
+    public long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    public double getDeliveredFrameRate() {
+        return deliveredFrameRate;
+    }
+
+    public long getIntervalP50() {
+        return intervalP50;
+    }
+
+    public long getIntervalP99() {
+        return intervalP99;
+    }
+
+    public long getIntervalMax() {
+        return intervalMax;
+    }
+
+    public long getJitterP99() {
+        return jitterP99;
+    }
+
+    public long getJitterMax() {
+        return jitterMax;
+    }
+
+    private void closeWindow(long now) {
+        double delivered = (double) windowFrames * Util.ONE_SECOND_IN_NANOS / (now - windowStart);
+        deliveredFrameRate = delivered;
+        intervalP50 = intervals.getPercentile(50);
+        intervalP99 = intervals.getPercentile(99);
+        intervalMax = intervals.getMax();
+        jitterP99 = jitters.getPercentile(99);
+        jitterMax = jitters.getMax();
+
+        if (logger.isTraceEnabled()) {
+            logger.trace("Delivered {} fps of {}, interval p50 {} us, p99 {} us, max {} us, jitter p99 {} us.",
+                    String.format("%.1f", delivered), frameRate, intervalP50 / 1000, intervalP99 / 1000,
+                    intervalMax / 1000, jitterP99 / 1000);
+        }
+
+        intervals.reset();
+        jitters.reset();
+        windowFrames = 0;
+        windowStart = now;
+
+        if (adaptive && !idle) {
+            adapt(delivered);
+        }
+    }
+
+    void adapt(double delivered) {
+        if (delivered < frameRate * SLOW_DELIVERY_RATIO) {
+            fullWindows = 0;
+            if (++slowWindows >= ADAPT_WINDOWS) {
+                slowWindows = 0;
+                failedFrameRate = failedFrameRate > 0 ? Math.min(failedFrameRate, frameRate) : frameRate;
+                failures = Math.min(failures + 1, MAX_PROBE_BACKOFF);
+                int adaptedRate = Math.max(1, (int) Math.ceil(delivered));
+                logger.info("The device delivers {} fps of {} requested, pacing at {} fps.",
+                        String.format("%.1f", delivered), frameRate, adaptedRate);
+                setFrameRate(adaptedRate);
+            }
+        } else if (frameRate < requestedFrameRate && delivered >= frameRate * FULL_DELIVERY_RATIO) {
+            slowWindows = 0;
+            int windows = ADAPT_WINDOWS;
+            if (failedFrameRate > 0 && frameRate == failedFrameRate - 1) {
+                // right below the rate that failed, the next step probes it again
+                windows = ADAPT_WINDOWS << failures;
+            }
+            if (++fullWindows >= windows) {
+                fullWindows = 0;
+                int adaptedRate = Math.min(requestedFrameRate, frameRate + Math.max(1, requestedFrameRate / 10));
+                if (failedFrameRate > frameRate + 1) {
+                    adaptedRate = Math.min(adaptedRate, failedFrameRate - 1);
+                } else if (frameRate >= failedFrameRate) {
+                    // keeping up past the rate that failed, the device has changed
+                    failedFrameRate = 0;
+                }
+                logger.info("The device keeps up with {} fps, pacing at {} fps.", frameRate, adaptedRate);
+                setFrameRate(adaptedRate);
+            }
+        } else {
+            slowWindows = 0;
+            fullWindows = 0;
+        }
+    }
+
+    private void setFrameRate(int frameRate) {
+        this.frameRate = frameRate;
+        this.interval = Util.ONE_SECOND_IN_NANOS / frameRate;
+    }
+}
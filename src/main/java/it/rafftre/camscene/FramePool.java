@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded set of frames of the same size, reused from one grab to the next.
+ * When every frame is in use {@link #acquire()} returns <code>null</code> and the grabbed frame should be dropped.
+ */
+final class FramePool {
+
+    private final int width;
+    private final int height;
+    private final int capacity;
+    private final RenderMode renderMode;
+    private final BlockingQueue<Frame> freeFrames;
+    private final AtomicInteger createdFrames = new AtomicInteger();
+
+    public FramePool(int width, int height, int capacity, RenderMode renderMode) {
+        this.width = width;
+        this.height = height;
+        this.capacity = capacity;
+        this.renderMode = renderMode;
+        this.freeFrames = new ArrayBlockingQueue<>(capacity);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public Frame acquire() {
+        Frame frame = freeFrames.poll();
+        if (frame != null) {
+            return frame;
+        }
+
+        if (createdFrames.incrementAndGet() > capacity) {
+            createdFrames.decrementAndGet();
+            return null;
+        }
+
+        return new Frame(this, width, height, renderMode);
+    }
+
+    public void release(Frame frame) {
+        if (frame == null) {
+            return;
+        }
+
+        frame.setImage(null);
+        freeFrames.offer(frame);
+    }
+
+    public void clear() {
+        freeFrames.clear();
+    }
+}
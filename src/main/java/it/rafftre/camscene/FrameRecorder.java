@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the raw frames of a camera in segment files of the {@link RawFrameFormat}, each one allocated in
+ * advance at a fixed size and written through a memory mapping. A new segment is started when the current one
+ * is full, older than the given age or when the frame size changes; next to every segment a {@link RecordingIndex}
+ * keeps the timestamps of its frames. A closed segment is unmapped at once, not when garbage collected, and
+ * truncated with its index to the frames written, so that it can be moved or deleted while the application runs.
+ * <p>
+ * The capture thread only copies the frame into one of a few free slots: the files are written by a thread of
+ * the recorder, and when it falls behind the frames that find no free slot are not recorded.
+ */
+final class FrameRecorder implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FrameRecorder.class);
+
+    private final File directory;
+    private final String name;
+    private final long segmentSize;
+    private final long segmentAgeMillis;
+
+    private final BlockingQueue<Slot> freeSlots = new ArrayBlockingQueue<>(Util.RECORDER_SLOTS);
+    private final BlockingQueue<Slot> filledSlots = new ArrayBlockingQueue<>(Util.RECORDER_SLOTS);
+    private final AtomicLong recordedFrames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong segments = new AtomicLong();
+    private volatile boolean stopped = false;
+    private volatile boolean failed = false;
+    private Thread thread;
+
+    private MappedByteBuffer segment;
+    private MappedByteBuffer index;
+    private File segmentFile;
+    private File indexFile;
+    private int segmentWidth;
+    private int segmentHeight;
+    private long segmentStart;
+
+    /**
+     * @param segmentSize the size in bytes of every segment file
+     * @param segmentAgeMillis the time after which a segment is closed even if not full, 0 for no limit
+     */
+    public FrameRecorder(File directory, String name, long segmentSize, long segmentAgeMillis) {
+        this.directory = directory;
+        this.name = RecordingIndex.getRecordingName(name);
+        this.segmentSize = Math.min(segmentSize, Integer.MAX_VALUE);
+        this.segmentAgeMillis = segmentAgeMillis;
+
+        for (int i = 0; i < Util.RECORDER_SLOTS; i++) {
+            freeSlots.add(new Slot());
+        }
+    }
+
+    public long getRecordedFrames() {
+        return recordedFrames.get();
+    }
+
+    /**
+     * Counts the frames not recorded because the writer was behind or had failed.
+     */
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    public synchronized void start() throws IOException {
+        if (thread != null) {
+            return;
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create the recording directory '" + directory + "'.");
+        }
+
+        thread = new Thread(this, "recorder-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues a frame of packed RGB bytes to be recorded. Called on the capture thread, never blocks.
+     *
+     * @param timestamp the grab time in milliseconds since the epoch
+     */
+    public void record(ByteBuffer rgbData, int width, int height, int frameRate, long timestamp) {
+        Slot slot = failed ? null : freeSlots.poll();
+        if (slot == null) {
+            droppedFrames.incrementAndGet();
+            return;
+        }
+
+        int length = width * height * 3;
+        if (slot.data == null || slot.data.length != length) {
+            slot.data = new byte[length];
+        }
+        Util.getFrameView(rgbData, length).get(slot.data);
+        slot.width = width;
+        slot.height = height;
+        slot.frameRate = frameRate;
+        slot.timestamp = timestamp;
+        filledSlots.add(slot);
+    }
+
+    /**
+     * Stops the recorder once the queued frames have been written.
+     */
+    public void close() {
+        Thread writer;
+        synchronized (this) {
+            stopped = true;
+            writer = thread;
+        }
+
+        if (writer != null) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        logger.debug("Recording '{}' in '{}'.", name, directory);
+
+        try {
+            while (true) {
+                Slot slot = filledSlots.poll(Util.RECORDER_POLL_MS, TimeUnit.MILLISECONDS);
+                if (slot == null) {
+                    if (stopped) {
+                        break;
+                    }
+                    continue;
+                }
+
+                try {
+                    write(slot);
+                } finally {
+                    freeSlots.add(slot);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.warn("Cannot record '" + name + "' any more.", e);
+            failed = true;
+        } finally {
+            closeSegment();
+        }
+
+        logger.debug("Recorded {} frames of '{}' in {} segments, {} dropped.",
+                recordedFrames.get(), name, segments.get(), droppedFrames.get());
+    }
+
+    private void write(Slot slot) throws IOException {
+        int frameSize = RawFrameFormat.getFrameSize(slot.width, slot.height);
+        if (segment == null
+                || slot.width != segmentWidth || slot.height != segmentHeight
+                || segment.remaining() < frameSize
+                || (segmentAgeMillis > 0 && slot.timestamp - segmentStart >= segmentAgeMillis)) {
+            closeSegment();
+            openSegment(slot);
+        }
+
+        index.putLong(slot.timestamp);
+        segment.putLong(slot.timestamp);
+        segment.put(slot.data);
+        if (segment.remaining() >= RawFrameFormat.FRAME_HEADER_SIZE) {
+            // the end mark, overwritten by the next frame
+            segment.putLong(segment.position(), 0);
+        }
+
+        recordedFrames.incrementAndGet();
+    }
+
+    private void openSegment(Slot slot) throws IOException {
+        int frameSize = RawFrameFormat.getFrameSize(slot.width, slot.height);
+        long size = Math.max(segmentSize, RawFrameFormat.HEADER_SIZE + frameSize);
+        int maxFrames = (int) ((size - RawFrameFormat.HEADER_SIZE) / frameSize);
+
+        File file = new File(directory, RecordingIndex.getSegmentName(name, slot.timestamp));
+        segmentFile = file;
+        indexFile = RecordingIndex.getIndexFile(file);
+        segment = map(segmentFile, size);
+        index = map(indexFile, (long) maxFrames * 8);
+        segmentWidth = slot.width;
+        segmentHeight = slot.height;
+        segmentStart = slot.timestamp;
+        segments.incrementAndGet();
+
+        RawFrameFormat.writeHeader(segment, slot.width, slot.height, slot.frameRate);
+        logger.debug("Started segment '{}'.", file);
+    }
+
+    private void closeSegment() {
+        if (segment == null) {
+            return;
+        }
+
+        // the header and the frames, without the end mark
+        long segmentLength = segment.position();
+        long indexLength = index.position();
+        segment.force();
+        index.force();
+        boolean unmapped = unmap(segment) & unmap(index);
+        segment = null;
+        index = null;
+
+        // a file still mapped cannot be truncated on Windows, it is left to the garbage collector at full size
+        if (unmapped) {
+            truncate(segmentFile, segmentLength);
+            truncate(indexFile, indexLength);
+        }
+    }
+
+    private static void truncate(File file, long size) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        } catch (IOException e) {
+            logger.warn("Cannot truncate '" + file + "'.", e);
+        }
+    }
+
+    /**
+     * Releases the mapping of a buffer, which must not be used any more.
+     *
+     * @return whether the buffer has been unmapped
+     */
+    private static boolean unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner;
+            try {
+                // Java 9 and later
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException e) {
+                invokeCleaner = null;
+            }
+
+            if (invokeCleaner != null) {
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } else {
+                Method getCleaner = buffer.getClass().getMethod("cleaner");
+                getCleaner.setAccessible(true);
+                Object cleaner = getCleaner.invoke(buffer);
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.debug("Cannot unmap a segment: {}", e.toString());
+            return false;
+        }
+    }
+
+    private static MappedByteBuffer map(File file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping survives the channel, and allocates the whole file
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static final class Slot {
+        byte[] data;
+        int width;
+        int height;
+        int frameRate;
+        long timestamp;
+    }
+}
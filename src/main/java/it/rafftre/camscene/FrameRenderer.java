@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Draws the grabbed frames of a camera always in the same JavaFX image, as long as the frame size does not change.
+ * Of the frames compared in tiles only the changed tiles are drawn, as long as no frame is missing in between.
+ * Must be used on the JavaFX application thread only.
+ */
+final class FrameRenderer {
+
+    private final PixelFormat<ByteBuffer> rgbFormat = PixelFormat.getByteRgbInstance();
+    private final PixelFormat<IntBuffer> argbFormat = PixelFormat.getIntArgbInstance();
+    private WritableImage image;
+    /** The sequence of the last compared frame drawn, -1 if the image has been drawn otherwise since then. */
+    private long lastSequence = -1;
+    private final ReplayBuffer.Reader replayReader = new ReplayBuffer.Reader() {
+
+        @Override
+        public void read(ByteBuffer rgbData, int width, int height, long timestamp) {
+            prepareImage(width, height);
+            image.getPixelWriter().setPixels(0, 0, width, height, rgbFormat, rgbData, width * 3);
+            lastSequence = -1;
+        }
+    };
+
+    public Image render(Frame frame) {
+        boolean resized = prepareImage(frame.getWidth(), frame.getHeight());
+
+        if (frame.getImage() == null && frame.getChangedTiles() != null) {
+            renderTiles(frame, resized || frame.getSequence() != lastSequence + 1);
+            lastSequence = frame.getSequence();
+            return image;
+        }
+        lastSequence = -1;
+
+        if (frame.isDirect()) {
+            image.getPixelWriter().setPixels(0, 0, frame.getWidth(), frame.getHeight(),
+                    rgbFormat, frame.getRgbData(), 0, frame.getWidth() * 3);
+        } else {
+            image = SwingFXUtils.toFXImage(frame.getImage(), image);
+        }
+
+        return image;
+    }
+
+    /**
+     * Draws a frame of the instant replay straight from its buffer.
+     *
+     * @return the image, or <code>null</code> if the frame has been overwritten
+     */
+    public Image render(ReplayBuffer replayBuffer, long sequence) {
+        return replayBuffer.read(sequence, replayReader) ? image : null;
+    }
+
+    private void renderTiles(Frame frame, boolean full) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int[] argbData = frame.getArgbData();
+        PixelWriter writer = image.getPixelWriter();
+        if (full) {
+            writer.setPixels(0, 0, width, height, argbFormat, argbData, 0, width);
+            return;
+        }
+
+        boolean[] changedTiles = frame.getChangedTiles();
+        int tileSize = frame.getTileDiff().getTileSize();
+        int columns = frame.getTileDiff().getColumns();
+        for (int tile = 0; tile < changedTiles.length; tile++) {
+            if (!changedTiles[tile]) {
+                continue;
+            }
+
+            int x = (tile % columns) * tileSize;
+            int y = (tile / columns) * tileSize;
+            writer.setPixels(x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y), argbFormat,
+                    argbData, y * width + x, width);
+        }
+    }
+
+    public void reset() {
+        image = null;
+        lastSequence = -1;
+    }
+
+    /**
+     * @return whether a new image has been created
+     */
+    private boolean prepareImage(int width, int height) {
+        if (image == null || (int) image.getWidth() != width || (int) image.getHeight() != height) {
+            image = new WritableImage(width, height);
+            return true;
+        }
+        return false;
+    }
+}
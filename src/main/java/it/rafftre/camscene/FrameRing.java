@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded ring handing elements from one producer thread to one consumer thread without locks. The producer
+ * never blocks: it is told when the ring is full. The consumer can poll or park until an element is offered.
+ * <p>
+ * The ring counts its stalls: the offers finding it full, the polls finding it empty and the times the consumer
+ * had to park.
+ */
+final class FrameRing<T> {
+
+    private final Object[] elements;
+    private final int mask;
+    /** The index of the next element to take, written by the consumer only. */
+    private final AtomicLong head = new AtomicLong();
+    /** The index of the next element to offer, written by the producer only. */
+    private final AtomicLong tail = new AtomicLong();
+    private volatile Thread waiter;
+
+    private final AtomicLong fullOffers = new AtomicLong();
+    private final AtomicLong emptyPolls = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+
+    /**
+     * @param capacity the number of elements, rounded up to a power of two
+     */
+    public FrameRing(int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.elements = new Object[size];
+        this.mask = elements.length - 1;
+    }
+
+    public int getCapacity() {
+        return elements.length;
+    }
+
+    /**
+     * Returns the number of elements in the ring, exact only on the producer or the consumer thread.
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Adds an element; called by the producer only.
+     *
+     * @return <code>false</code> if the ring is full
+     */
+    public boolean offer(T element) {
+        long t = tail.get();
+        if (t - head.get() == elements.length) {
+            fullOffers.incrementAndGet();
+            return false;
+        }
+
+        elements[(int) t & mask] = element;
+        // a volatile write, ordered before the read of the waiter below
+        tail.set(t + 1);
+
+        Thread consumer = waiter;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * Removes the oldest element; called by the consumer only.
+     *
+     * @return the element, or <code>null</code> if the ring is empty
+     */
+    public T poll() {
+        T element = next();
+        if (element == null) {
+            emptyPolls.incrementAndGet();
+        }
+        return element;
+    }
+
+    /**
+     * Removes the oldest element, waiting for one to be offered; called by the consumer only.
+     *
+     * @return the element, or <code>null</code> if none has been offered within the timeout or {@link #wake()}
+     * has been called
+     */
+    public T take(long timeoutNanos) {
+        T element = next();
+        if (element != null) {
+            return element;
+        }
+
+        waits.incrementAndGet();
+        waiter = Thread.currentThread();
+        try {
+            // checked again after publishing the waiter, an offer may have missed it
+            element = next();
+            if (element == null) {
+                LockSupport.parkNanos(this, timeoutNanos);
+                element = next();
+            }
+        } finally {
+            waiter = null;
+        }
+        return element;
+    }
+
+    /**
+     * Wakes up the consumer waiting in {@link #take(long)}.
+     */
+    public void wake() {
+        Thread consumer = waiter;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T next() {
+        long h = head.get();
+        if (h == tail.get()) {
+            return null;
+        }
+
+        int index = (int) h & mask;
+        T element = (T) elements[index];
+        elements[index] = null;
+        head.lazySet(h + 1);
+        return element;
+    }
+
+    public long getFullOffers() {
+        return fullOffers.get();
+    }
+
+    public long getEmptyPolls() {
+        return emptyPolls.get();
+    }
+
+    public long getWaits() {
+        return waits.get();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Where the frames of a {@link CameraInfo} come from: a capture device, a generator or a recording.
+ * A source is used by one capture thread at a time.
+ */
+interface FrameSource {
+
+    String getName();
+
+    /**
+     * Starts the source asking for the given size and frame rate, which the source may not honour.
+     */
+    void open(int width, int height, int frameRate) throws IOException;
+
+    void close();
+
+    boolean isOpen();
+
+    /**
+     * Whether a grab may wait for the next frame to come, as from a device, rather than deliver it at once.
+     */
+    boolean isBlocking();
+
+    /**
+     * Grabs the next frame; returns <code>false</code> when no frame is available.
+     * The frame is described by the other getters until the next grab.
+     */
+    boolean grab();
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Returns the packed RGB bytes of the grabbed frame. The array is owned by the source and is overwritten by the
+     * next grab.
+     */
+    byte[] getData();
+
+    /**
+     * Returns the packed RGB bytes of the grabbed frame where the source keeps them, from index 0, without copying
+     * them; <code>null</code> if the source can only give them through {@link #getData()}. The buffer is owned by the
+     * source and is overwritten by the next grab.
+     */
+    ByteBuffer getBuffer();
+
+    /**
+     * Returns the grabbed frame as an image, for the sources that do not deliver packed RGB bytes.
+     */
+    BufferedImage getBufferedImage();
+
+    /**
+     * Returns a new, closed source reading from the same origin.
+     */
+    FrameSource copy();
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates the frame sources described by the <code>sources</code> option: a comma separated list of
+ * <code>synthetic[:WIDTHxHEIGHT][*COUNT]</code> and <code>replay:FILE[@TIME]</code> entries, where the time is in
+ * milliseconds since the epoch.
+ */
+final class FrameSources {
+
+    static final String SYNTHETIC = "synthetic";
+    static final String REPLAY = "replay";
+
+    private FrameSources() {
+    }
+
+    public static List<FrameSource> parse(String spec) {
+        List<FrameSource> sources = new ArrayList<>();
+        if (spec == null || spec.trim().isEmpty()) {
+            return sources;
+        }
+
+        for (String entry : spec.split(",")) {
+            entry = entry.trim();
+            if (entry.startsWith(REPLAY + ":")) {
+                parseReplay(entry, sources);
+            } else if (entry.startsWith(SYNTHETIC)) {
+                parseSynthetic(entry, sources);
+            } else {
+                throw new IllegalArgumentException("Unknown frame source: " + entry);
+            }
+        }
+
+        return sources;
+    }
+
+    private static void parseReplay(String entry, List<FrameSource> sources) {
+        String path = entry.substring(REPLAY.length() + 1);
+        long startTime = 0;
+        int timeIndex = path.lastIndexOf('@');
+        if (timeIndex >= 0) {
+            startTime = Long.parseLong(path.substring(timeIndex + 1));
+            path = path.substring(0, timeIndex);
+        }
+
+        sources.add(new ReplayFrameSource(new File(path), startTime));
+    }
+
+    private static void parseSynthetic(String entry, List<FrameSource> sources) {
+        String size = entry.substring(SYNTHETIC.length());
+        int count = 1;
+        int countIndex = size.indexOf('*');
+        if (countIndex >= 0) {
+            count = Integer.parseInt(size.substring(countIndex + 1));
+            size = size.substring(0, countIndex);
+        }
+
+        int width = 0;
+        int height = 0;
+        if (size.startsWith(":")) {
+            size = size.substring(1);
+            int separator = size.indexOf('x');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Invalid synthetic source size: " + size);
+            }
+            width = Integer.parseInt(size.substring(0, separator));
+            height = Integer.parseInt(size.substring(separator + 1));
+            if (width <= 0 || height <= 0) {
+                throw new IllegalArgumentException("Invalid synthetic source size: " + size);
+            }
+        } else if (!size.isEmpty()) {
+            throw new IllegalArgumentException("Invalid synthetic source: " + entry);
+        }
+
+        for (int i = 0; i < count; i++) {
+            String name = Util.getString("source.syntheticName", sources.size() + 1);
+            sources.add(new SyntheticFrameSource(name, width, height));
+        }
+    }
+}
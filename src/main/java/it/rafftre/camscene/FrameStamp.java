@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import java.util.Arrays;
+
+/**
+ * Writes 64 bit values in the pixels of a packed RGB frame as a row of 64 black or white cells, starting from the
+ * top left corner. The cell side is proportional to the frame width, so a stamp survives the frame being scaled.
+ * Frames narrower than 64 pixels cannot hold a row of cells and are not stamped.
+ */
+final class FrameStamp {
+
+    static final int BITS = 64;
+
+    private FrameStamp() {
+    }
+
+    public static int getCellSize(int width) {
+        return Math.max(1, width / (BITS * 2));
+    }
+
+    /**
+     * Whether a row of cells fits in a frame of the given width.
+     */
+    public static boolean fits(int width) {
+        return BITS * getCellSize(width) <= width;
+    }
+
+    /**
+     * Writes <code>value</code> in the <code>line</code>-th row of cells.
+     */
+    public static void write(byte[] rgbData, int width, int height, int line, long value) {
+        if (!fits(width)) {
+            return;
+        }
+
+        int cell = getCellSize(width);
+        int firstRow = line * cell;
+        if (firstRow + cell > height) {
+            return;
+        }
+
+        for (int bit = 0; bit < BITS; bit++) {
+            byte level = ((value >>> (BITS - 1 - bit)) & 1) != 0 ? (byte) 0xff : 0;
+            for (int y = firstRow; y < firstRow + cell; y++) {
+                int from = (y * width + bit * cell) * 3;
+                Arrays.fill(rgbData, from, from + cell * 3, level);
+            }
+        }
+    }
+}
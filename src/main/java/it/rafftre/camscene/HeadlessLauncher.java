@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import com.sleepingdumpling.jvideoinput.Device;
+import com.sleepingdumpling.jvideoinput.VideoInput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Captures from the cameras without any user interface, logging the statistics of every stream.
+ * Accepts the same <code>--width</code>, <code>--height</code> and <code>--rate</code> options of {@link Launcher},
+ * plus <code>--camera</code> (a comma separated list of camera names or indexes, all cameras by default; identical
+ * cameras are named as in the user interface, the second one with a <code>#2</code> suffix),
+ * <code>--sources</code> (frame sources to use instead of the cameras, see {@link FrameSources}),
+ * <code>--statsLog</code> (seconds between two summaries), <code>--captureThreads</code> (the threads capturing all
+ * the sources that do not wait for their frames, see {@link CaptureEngine}; by default every camera has its own) and
+ * the recording options <code>--record</code>, <code>--recordSegment</code> and <code>--recordAge</code> (see
+ * {@link FrameRecorder}).
+ */
+public final class HeadlessLauncher {
+
+    private static final Logger logger = LoggerFactory.getLogger(HeadlessLauncher.class);
+
+    public static void main(String[] args) throws InterruptedException {
+        System.setProperty("java.awt.headless", "true");
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+                logger.error("An unexpected error occurred.", e);
+            }
+        });
+
+        Map<String, String> params = parseNamedParameters(args);
+        int width = Integer.parseInt(getOrDefault(params, "width", Util.DEFAULT_VIDEO_WIDTH.toString()));
+        int height = Integer.parseInt(getOrDefault(params, "height", Util.DEFAULT_VIDEO_HEIGHT.toString()));
+        int fps = Integer.parseInt(getOrDefault(params, "rate", Util.DEFAULT_VIDEO_FPS.toString()));
+        long statsLogPeriod = Long.parseLong(getOrDefault(params, "statsLog", Util.DEFAULT_HEADLESS_STATS_LOG));
+        String cameraFilter = params.get("camera");
+        int captureThreads = Integer.parseInt(getOrDefault(params, "captureThreads", Util.DEFAULT_CAPTURE_THREADS));
+        int httpPort = Integer.parseInt(getOrDefault(params, "httpPort", "0"));
+        String recordDirectory = params.get("record");
+        long recordSegmentSize = Long.parseLong(getOrDefault(params, "recordSegment", Util.DEFAULT_RECORD_SEGMENT_MB));
+        long recordSegmentAge = Long.parseLong(getOrDefault(params, "recordAge", Util.DEFAULT_RECORD_SEGMENT_AGE));
+
+        List<FrameSource> sources = new ArrayList<>();
+        if (params.containsKey("sources")) {
+            sources.addAll(FrameSources.parse(params.get("sources")));
+        } else {
+            // identical cameras are told apart as in the user interface, since a name identifies a camera
+            Set<String> names = new HashSet<>();
+            int index = 0;
+            for (Device device : VideoInput.getVideoDevices()) {
+                String name = DeviceWatcher.getUniqueName(names, device.getNameStr());
+                names.add(name);
+                if (isSelected(cameraFilter, index, device.getNameStr()) || isSelected(cameraFilter, index, name)) {
+                    sources.add(new DeviceFrameSource(name, device));
+                }
+                index++;
+            }
+        }
+
+        PreviewServer previewServer = null;
+        if (httpPort > 0) {
+            previewServer = new PreviewServer(httpPort);
+            try {
+                previewServer.start();
+            } catch (IOException e) {
+                logger.warn("Cannot serve the cameras on port " + httpPort + ".", e);
+                previewServer = null;
+            }
+        }
+
+        final List<CameraSession> sessions = new ArrayList<>();
+        for (FrameSource source : sources) {
+            CameraInfo camera = new CameraInfo(source);
+            camera.setViewSize(new Dimension(width, height));
+            camera.setFrameRate(fps);
+            camera.setRenderMode(RenderMode.DIRECT);
+
+            CameraSession session = new CameraSession(camera);
+            session.setDisplayed(false);
+            session.setStatsLogPeriod(statsLogPeriod);
+            session.setPreviewServer(previewServer);
+            if (recordDirectory != null) {
+                session.setRecorder(new FrameRecorder(new File(recordDirectory), camera.getName(),
+                        recordSegmentSize * 1024 * 1024, recordSegmentAge * 1000));
+            }
+            sessions.add(session);
+        }
+
+        if (sessions.isEmpty()) {
+            logger.warn("No camera to capture from.");
+            if (previewServer != null) {
+                previewServer.stop();
+            }
+            return;
+        }
+
+        if (captureThreads > 0) {
+            int blockingSources = 0;
+            for (FrameSource source : sources) {
+                blockingSources += source.isBlocking() ? 1 : 0;
+            }
+            if (blockingSources > 0) {
+                logger.warn("{} cameras wait for their frames: they are captured on threads of their own, not on "
+                        + "the {} capture threads.", blockingSources, captureThreads);
+            }
+        }
+
+        final CaptureService captureService = new CaptureService(captureThreads);
+        captureService.register();
+        final Thread mainThread = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                try {
+                    captureService.stopAll(Util.SESSION_CLOSE_TIMEOUT_MS);
+                    // the virtual machine halts when the hooks end: lets the main thread log the summaries
+                    mainThread.join(Util.SESSION_CLOSE_TIMEOUT_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        logger.info("Capturing from {} cameras at {}x{}@{}.", sessions.size(), width, height, fps);
+        for (CameraSession session : sessions) {
+            captureService.start(session);
+        }
+        captureService.awaitAll(Long.MAX_VALUE);
+        captureService.shutdown();
+        if (previewServer != null) {
+            previewServer.stop();
+        }
+
+        for (CameraSession session : sessions) {
+            logger.info("Camera '{}': {}.", session.getCamera(), session.getStats().getSummary());
+        }
+    }
+
+    static Map<String, String> parseNamedParameters(String[] args) {
+        Map<String, String> params = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (arg.startsWith("--") && separator > 2) {
+                params.put(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+        }
+
+        return params;
+    }
+
+    private static String getOrDefault(Map<String, String> params, String name, String defaultValue) {
+        String value = params.get(name);
+        return value != null ? value : defaultValue;
+    }
+
+    private static boolean isSelected(String cameraFilter, int index, String name) {
+        if (cameraFilter == null || cameraFilter.isEmpty()) {
+            return true;
+        }
+
+        for (String selected : Arrays.asList(cameraFilter.split(","))) {
+            selected = selected.trim();
+            if (selected.equals(Integer.toString(index)) || selected.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelReader;
+
+/**
+ * Measures how stale the displayed frames are. A {@link SyntheticFrameSource} stamps the time of the capture in its
+ * frames; the probe decodes it from the image actually shown and records the time from the capture to the display.
+ * The frames of other sources are counted as not decoded.
+ * <p>
+ * Used on the JavaFX application thread only.
+ */
+final class LatencyProbe {
+
+    private final IntervalHistogram latencies = new IntervalHistogram();
+    private final IntervalHistogram recentLatencies = new IntervalHistogram();
+    private long undecodedFrames;
+
+    /**
+     * Records the latency of a frame being shown.
+     *
+     * @param sourceWidth the width of the frame as grabbed, before any scaling
+     * @return the latency in nanoseconds, or -1 if the frame carries no capture time
+     */
+    public long frameShown(Image image, int sourceWidth) {
+        long now = System.nanoTime();
+        long captureTime = read(image, sourceWidth, SyntheticFrameSource.NANO_TIME_LINE);
+        long latency = now - captureTime;
+        if (captureTime == -1 || latency < 0 || latency > Util.LATENCY_MAX_NANOS) {
+            undecodedFrames++;
+            return -1;
+        }
+
+        latencies.record(latency);
+        recentLatencies.record(latency);
+        return latency;
+    }
+
+    /**
+     * Reads a line of {@link FrameStamp} cells from an image, possibly scaled from the frame stamped.
+     *
+     * @return the value, or -1 if the cells are too small to be read
+     */
+    static long read(Image image, int sourceWidth, int line) {
+        PixelReader reader = image.getPixelReader();
+        if (reader == null || !FrameStamp.fits(sourceWidth)) {
+            return -1;
+        }
+
+        double cell = FrameStamp.getCellSize(sourceWidth) * image.getWidth() / sourceWidth;
+        int y = (int) ((line + 0.5) * cell);
+        if (cell < Util.LATENCY_MIN_CELL_PIXELS || y >= image.getHeight()) {
+            return -1;
+        }
+
+        long value = 0;
+        for (int bit = 0; bit < FrameStamp.BITS; bit++) {
+            // the middle of the cell, away from the blending of the scaling at its borders
+            int green = reader.getArgb((int) ((bit + 0.5) * cell), y) >> 8 & 0xff;
+            value = value << 1 | (green >= 0x80 ? 1 : 0);
+        }
+        return value;
+    }
+
+    /**
+     * The latencies recorded since the probe was created or reset.
+     */
+    public IntervalHistogram getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * The latencies recorded since this histogram was last reset, by whoever shows them periodically.
+     */
+    public IntervalHistogram getRecentLatencies() {
+        return recentLatencies;
+    }
+
+    public long getUndecodedFrames() {
+        return undecodedFrames;
+    }
+
+    public void reset() {
+        latencies.reset();
+        recentLatencies.reset();
+        undecodedFrames = 0;
+    }
+}
@@ -37,6 +37,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -53,6 +56,21 @@ public final class Launcher extends Application {
         int width = Integer.parseInt(params.getOrDefault("width", Util.DEFAULT_VIDEO_WIDTH.toString()));
         int height = Integer.parseInt(params.getOrDefault("height", Util.DEFAULT_VIDEO_HEIGHT.toString()));
         int fps = Integer.parseInt(params.getOrDefault("rate", Util.DEFAULT_VIDEO_FPS.toString()));
+        long statsLogPeriod = Long.parseLong(params.getOrDefault("statsLog", "0"));
+        boolean latencyProbe = Boolean.parseBoolean(params.getOrDefault("latencyProbe", "false"));
+        List<FrameSource> sources = FrameSources.parse(params.get("sources"));
+        RenderMode renderMode = RenderMode.fromString(params.getOrDefault("render", RenderMode.DIRECT.name()));
+        long replayBudget = Long.parseLong(params.getOrDefault("replayBudget", Util.DEFAULT_REPLAY_BUDGET_MB));
+        int warmSessions = Integer.parseInt(params.getOrDefault("warmSessions", Util.DEFAULT_WARM_SESSIONS));
+        long deviceScanPeriod = Long.parseLong(params.getOrDefault("deviceScan", Util.DEFAULT_DEVICE_SCAN_PERIOD));
+        int httpPort = Integer.parseInt(params.getOrDefault("httpPort", "0"));
+        String snapshotDirectory = params.getOrDefault("snapshots", Util.DEFAULT_SNAPSHOT_DIRECTORY);
+        String snapshotFormat = params.getOrDefault("snapshotFormat", Util.DEFAULT_SNAPSHOT_FORMAT);
+        int burstFrames = Integer.parseInt(params.getOrDefault("burstFrames", Util.DEFAULT_BURST_FRAMES));
+        long snapshotBacklog = Long.parseLong(params.getOrDefault("snapshotBacklog", Util.DEFAULT_SNAPSHOT_BACKLOG_MB));
+        String recordDirectory = params.get("record");
+        long recordSegmentSize = Long.parseLong(params.getOrDefault("recordSegment", Util.DEFAULT_RECORD_SEGMENT_MB));
+        long recordSegmentAge = Long.parseLong(params.getOrDefault("recordAge", Util.DEFAULT_RECORD_SEGMENT_AGE));
 
         primaryStage.setTitle(Util.getString("app.name"));
 
@@ -69,6 +87,30 @@ public final class Launcher extends Application {
         MainWindowController mainWindowController = fxmlLoader.getController();
         mainWindowController.setViewSize(new Dimension(width, height));
         mainWindowController.setFrameRate(fps);
+        mainWindowController.setRenderMode(renderMode);
+        mainWindowController.setStatsLogPeriod(statsLogPeriod);
+        mainWindowController.setLatencyProbe(latencyProbe);
+        mainWindowController.setReplayBudget(replayBudget * 1024 * 1024);
+        mainWindowController.setWarmSessions(warmSessions);
+        if (recordDirectory != null) {
+            mainWindowController.setRecording(new File(recordDirectory), recordSegmentSize * 1024 * 1024,
+                    recordSegmentAge * 1000);
+        }
+        if (!snapshotDirectory.isEmpty()) {
+            mainWindowController.setSnapshots(new SnapshotExporter(new File(snapshotDirectory), snapshotFormat,
+                    Util.SNAPSHOT_THREADS, snapshotBacklog * 1024 * 1024), burstFrames);
+        }
+        if (httpPort > 0) {
+            PreviewServer previewServer = new PreviewServer(httpPort);
+            try {
+                previewServer.start();
+                mainWindowController.setPreviewServer(previewServer);
+            } catch (IOException e) {
+                logger.warn("Cannot serve the cameras on port " + httpPort + ".", e);
+            }
+        }
+        mainWindowController.addFrameSources(sources);
+        mainWindowController.watchDevices(deviceScanPeriod);
 
         primaryStage.titleProperty().bind(
                 new SimpleStringProperty(primaryStage.getTitle())
@@ -102,7 +144,7 @@ public final class Launcher extends Application {
         @Override
         public void uncaughtException(Thread t, Throwable e) {
             if (Platform.isFxApplicationThread()) {
-                Util.showExceptionDialog(e);
+                FxUtil.showExceptionDialog(e);
             } else {
                 logger.error("An unexpected error occurred.", e);
             }
@@ -23,30 +23,39 @@
 package it.rafftre.camscene;
 
 import com.sleepingdumpling.jvideoinput.Device;
-import com.sleepingdumpling.jvideoinput.VideoInput;
-import com.sleepingdumpling.jvideoinput.VideoInputException;
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
-import javafx.concurrent.Task;
-import javafx.embed.swing.SwingFXUtils;
 import javafx.event.ActionEvent;
 import javafx.scene.control.Button;
 import javafx.scene.control.ComboBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.Slider;
+import javafx.scene.control.ToggleButton;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.FlowPane;
+import javafx.scene.layout.TilePane;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.awt.*;
-import java.awt.image.BufferedImage;
-import java.util.concurrent.locks.LockSupport;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public final class MainWindowController {
 
@@ -57,14 +66,39 @@ public final class MainWindowController {
     public ComboBox<CameraInfo> selectBox;
     public Button playButton;
     public Button disposeButton;
+    public ToggleButton gridButton;
+    public ToggleButton replayButton;
+    public Button snapshotButton;
+    public Button burstButton;
+    public Label snapshotLabel;
+    public Slider replaySlider;
     public ImageView startImage;
     public ImageView stopImage;
     public ImageView cameraImage;
 
     private CameraInfo currentCamera = null;
-    private boolean stopCamera = false;
+    private volatile CameraSession currentSession = null;
     private Dimension viewSize;
     private int frameRate;
+    private RenderMode renderMode = RenderMode.DIRECT;
+    private long statsLogPeriod = 0;
+    private boolean latencyProbe = false;
+    private File recordDirectory = null;
+    private long recordSegmentSize;
+    private long recordSegmentAge;
+    private long replayBudget = 0;
+    private final SessionPool sessionPool = new SessionPool(0);
+    private final CaptureService captureService = new CaptureService();
+    private DeviceWatcher deviceWatcher = null;
+    private PreviewServer previewServer = null;
+    private SnapshotExporter snapshotExporter = null;
+    private int burstFrames;
+    private volatile SnapshotExporter.Burst currentBurst = null;
+
+    private final DisplayTimer displayTimer = new DisplayTimer();
+    private SessionDisplay mainDisplay = null;
+    private TilePane gridPane = null;
+    private final List<GridTile> gridTiles = new CopyOnWriteArrayList<>();
 
     private ObjectProperty<Image> imageProperty = new SimpleObjectProperty<>();
     private StringProperty imageSize = new SimpleStringProperty();
@@ -73,6 +107,16 @@ public final class MainWindowController {
         return imageSize;
     }
 
+    public long getRenderedFrames() {
+        CameraSession session = currentSession;
+        return session != null ? session.getMailbox().getRenderedFrames() : 0;
+    }
+
+    public long getDroppedFrames() {
+        CameraSession session = currentSession;
+        return session != null ? session.getStats().getDroppedFrames() : 0;
+    }
+
     public void setViewSize(Dimension viewSize) {
         if (viewSize != null) {
             this.viewSize = viewSize;
@@ -89,6 +133,106 @@ public final class MainWindowController {
         }
     }
 
+    public void setRenderMode(RenderMode renderMode) {
+        if (renderMode != null) {
+            this.renderMode = renderMode;
+        } else {
+            this.renderMode = RenderMode.DIRECT;
+        }
+    }
+
+    public void setStatsLogPeriod(long statsLogPeriod) {
+        this.statsLogPeriod = Math.max(0, statsLogPeriod);
+    }
+
+    /**
+     * Shows the latency from the capture to the display of the camera shown, for the synthetic sources only.
+     */
+    public void setLatencyProbe(boolean latencyProbe) {
+        this.latencyProbe = latencyProbe;
+    }
+
+    /**
+     * Records every camera session in the given directory, <code>null</code> to disable recording.
+     *
+     * @param segmentSize the size in bytes of the segment files
+     * @param segmentAgeMillis the time after which a segment is closed even if not full, 0 for no limit
+     */
+    public void setRecording(File directory, long segmentSize, long segmentAgeMillis) {
+        this.recordDirectory = directory;
+        this.recordSegmentSize = segmentSize;
+        this.recordSegmentAge = segmentAgeMillis;
+    }
+
+    /**
+     * Sets the memory, in bytes, of the instant replay of the camera shown; 0 disables the replay.
+     */
+    public void setReplayBudget(long replayBudget) {
+        this.replayBudget = Math.max(0, replayBudget);
+        replayButton.setVisible(this.replayBudget > 0);
+        replayButton.setManaged(this.replayBudget > 0);
+    }
+
+    /**
+     * Sets how many cameras, besides the one shown, are kept open and idle for a fast switch.
+     */
+    public void setWarmSessions(int warmSessions) {
+        sessionPool.setCapacity(warmSessions);
+    }
+
+    /**
+     * Sets where the snapshots of the camera shown are saved, <code>null</code> to disable them.
+     *
+     * @param burstFrames the number of consecutive frames taken by a burst
+     */
+    public void setSnapshots(SnapshotExporter exporter, int burstFrames) {
+        this.snapshotExporter = exporter;
+        this.burstFrames = Math.max(1, burstFrames);
+        snapshotButton.setVisible(exporter != null);
+        snapshotButton.setManaged(exporter != null);
+        burstButton.setVisible(exporter != null);
+        burstButton.setManaged(exporter != null);
+    }
+
+    /**
+     * Sets the server on which every camera open is served, <code>null</code> for none.
+     */
+    public void setPreviewServer(PreviewServer previewServer) {
+        this.previewServer = previewServer;
+    }
+
+    /**
+     * Starts enumerating the capture devices in background, repeating it every given seconds (0 to do it once) to
+     * keep the list of cameras up to date with the devices plugged in or removed.
+     */
+    public void watchDevices(long periodSeconds) {
+        if (deviceWatcher != null) {
+            return;
+        }
+
+        deviceWatcher = new DeviceWatcher(periodSeconds);
+        deviceWatcher.start(new DeviceWatcher.Listener() {
+
+            @Override
+            public void devicesChanged(final Map<String, Device> devices) {
+                Platform.runLater(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        updateCameraOptions(devices);
+                    }
+                });
+            }
+        });
+    }
+
+    public void addFrameSources(List<FrameSource> sources) {
+        for (FrameSource source : sources) {
+            logger.debug("Added source '{}'.", source.getName());
+            selectBox.getItems().add(new CameraInfo(source));
+        }
+    }
+
     public void initialize() {
         startImage = new ImageView(new Image(getClass().getResourceAsStream(Util.START_IMAGE)));
         stopImage = new ImageView(new Image(getClass().getResourceAsStream(Util.STOP_IMAGE)));
@@ -105,6 +249,20 @@ public final class MainWindowController {
         imageSize.setValue(Util.getString("app.imageSizeEmptyDescr"));
 
         cameraImage.imageProperty().bind(imageProperty);
+        replaySlider.valueProperty().addListener(new ChangeListener<Number>() {
+
+            @Override
+            public void changed(ObservableValue<? extends Number> observable, Number oldValue, Number newValue) {
+                if (mainDisplay != null) {
+                    mainDisplay.setReplayPosition(Math.round(newValue.doubleValue()));
+                }
+            }
+        });
+        setReplayBudget(replayBudget);
+        setSnapshots(snapshotExporter, burstFrames);
+        snapshotButton.setDisable(true);
+        burstButton.setDisable(true);
+        displayTimer.start();
 
         Platform.runLater(new Runnable() {
 
@@ -114,9 +272,27 @@ public final class MainWindowController {
             }
         });
 
+        captureService.register();
         Runtime.getRuntime().addShutdownHook(new Thread() {
             public void run() {
                 disposeCamera();
+                stopGrid();
+                sessionPool.closeAll(0);
+                try {
+                    if (!captureService.stopAll(Util.SESSION_CLOSE_TIMEOUT_MS)) {
+                        logger.warn("Cameras not closed in time: {}.",
+                                Arrays.toString(captureService.getCameraStates()));
+                    }
+                    // the worker threads are daemons: a burst still being saved would be lost
+                    if (snapshotExporter != null) {
+                        snapshotExporter.shutdown();
+                        if (!snapshotExporter.awaitTermination(Util.SNAPSHOT_SHUTDOWN_TIMEOUT_MS)) {
+                            logger.warn("Snapshots not saved in time.");
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
             }
         });
     }
@@ -136,6 +312,14 @@ public final class MainWindowController {
         cameraImage.setFitWidth(width);
         cameraImage.prefHeight(height);
         cameraImage.prefWidth(width);
+        if (currentCamera != null) {
+            // the frames are scaled down while grabbed, rather than by the image view
+            currentCamera.setDisplaySize(new Dimension((int) width, (int) height));
+        }
+
+        if (gridPane != null) {
+            layoutGrid(width, height);
+        }
     }
 
     public void selectAction(ActionEvent e) {
@@ -146,11 +330,13 @@ public final class MainWindowController {
         }
 
         logger.debug("Selected camera '{}'", cameraInfo.getName());
-        Util.startDaemonTask(new SwitchCameraTask(cameraInfo));
+        switchCamera(cameraInfo);
 
         playButton.setGraphic(stopImage);
         playButton.setDisable(false);
         disposeButton.setDisable(false);
+        snapshotButton.setDisable(false);
+        burstButton.setDisable(false);
     }
 
     public void playAction(ActionEvent e) {
@@ -162,38 +348,156 @@ public final class MainWindowController {
     }
 
     public void disposeAction(ActionEvent e) {
+        sessionPool.closeAll(0);
+        closeCurrentCamera();
+    }
+
+    private void closeCurrentCamera() {
         if (currentCamera == null) {
             return;
         }
 
         disposeCamera();
+        currentCamera = null;
 
         selectBox.getSelectionModel().clearSelection();
 
         // le due proprietà andrebbero resettate alla fine del StartCameraStreamTask, ma solo in questo caso
         imageProperty.setValue(null);
         imageSize.setValue(Util.getString("app.imageSizeEmptyDescr"));
+        mainDisplay = null;
 
         playButton.setGraphic(startImage);
         playButton.setDisable(true);
         disposeButton.setDisable(true);
+        snapshotButton.setDisable(true);
+        burstButton.setDisable(true);
+    }
+
+    public void replayAction(ActionEvent e) {
+        if (replayButton.isSelected() && mainDisplay != null && mainDisplay.pause()) {
+            replaySlider.setMin(mainDisplay.getReplayStart());
+            replaySlider.setMax(mainDisplay.getReplayEnd());
+            replaySlider.setValue(mainDisplay.getReplayEnd());
+            replaySlider.setVisible(true);
+            replaySlider.setManaged(true);
+        } else {
+            stopReplay();
+        }
+    }
+
+    public void snapshotAction(ActionEvent e) {
+        startBurst(1);
+    }
+
+    public void burstAction(ActionEvent e) {
+        startBurst(burstFrames);
+    }
+
+    public void gridAction(ActionEvent e) {
+        if (gridButton.isSelected()) {
+            disposeAction(e);
+            selectBox.setDisable(true);
+            startGrid();
+        } else {
+            stopGrid();
+            selectBox.setDisable(false);
+        }
     }
 
+    /**
+     * Lists the cameras found in the previous run, until the devices are enumerated.
+     */
     private void loadCameraOptions() {
         ObservableList<CameraInfo> options = FXCollections.observableArrayList();
 
-        for (Device device : VideoInput.getVideoDevices()) {
-            logger.debug("Found camera '{}'.", device.getNameStr());
-            options.add(new CameraInfo(device));
+        for (String name : DeviceWatcher.getCachedNames()) {
+            logger.debug("Listed camera '{}'.", name);
+            options.add(new CameraInfo(new DeviceFrameSource(name)));
         }
 
         selectBox.setItems(options);
     }
 
+    /**
+     * Brings the cameras listed in line with the devices connected, leaving untouched the ones still there.
+     */
+    private void updateCameraOptions(Map<String, Device> devices) {
+        List<CameraInfo> options = selectBox.getItems();
+        List<CameraInfo> removed = new ArrayList<>();
+        Set<String> listed = new HashSet<>();
+        int deviceCount = 0;
+
+        for (CameraInfo cameraInfo : options) {
+            if (!(cameraInfo.getSource() instanceof DeviceFrameSource)) {
+                continue;
+            }
+
+            DeviceFrameSource source = (DeviceFrameSource) cameraInfo.getSource();
+            Device device = devices.get(source.getName());
+            source.setDevice(device);
+            if (device == null) {
+                removed.add(cameraInfo);
+            } else {
+                listed.add(source.getName());
+                deviceCount++;
+            }
+        }
+
+        for (CameraInfo cameraInfo : removed) {
+            cameraRemoved(cameraInfo);
+        }
+        options.removeAll(removed);
+
+        // the devices come before the other sources
+        for (Map.Entry<String, Device> entry : devices.entrySet()) {
+            if (!listed.contains(entry.getKey())) {
+                options.add(deviceCount++, new CameraInfo(new DeviceFrameSource(entry.getKey(), entry.getValue())));
+            }
+        }
+    }
+
+    /**
+     * Closes every session of a camera whose device was removed.
+     */
+    private void cameraRemoved(CameraInfo cameraInfo) {
+        logger.debug("Closing camera '{}', no longer connected.", cameraInfo);
+
+        sessionPool.discard(cameraInfo);
+
+        if (cameraInfo == currentCamera) {
+            closeCurrentCamera();
+        }
+
+        for (GridTile tile : gridTiles) {
+            FrameSource source = tile.display.getSession().getCamera().getSource();
+            if (source instanceof DeviceFrameSource && source.getName().equals(cameraInfo.getName())) {
+                ((DeviceFrameSource) source).setDevice(null);
+                tile.display.getSession().stop();
+            }
+        }
+    }
+
+    /**
+     * Shows another camera. Nothing here waits for a device: the capture service opens the camera only once its
+     * previous session, if any, has closed it.
+     */
+    private void switchCamera(CameraInfo cameraInfo) {
+        if (currentCamera != null) {
+            releaseCamera();
+        }
+
+        currentCamera = cameraInfo;
+        logger.debug("Connecting camera '{}'.", currentCamera);
+
+        adjustSize(0, 0);
+        startMainSession();
+    }
+
     private void startCamera() {
         logger.debug("Starting camera '{}'.", currentCamera);
 
-        Util.startDaemonTask(new RetrieveAndDisplayTask());
+        startMainSession();
 
         playButton.setGraphic(stopImage);
     }
@@ -201,121 +505,244 @@ public final class MainWindowController {
     private void stopCamera() {
         logger.debug("Stopping camera '{}'.", currentCamera);
 
-        stopCamera = true;
+        releaseCamera();
 
         playButton.setGraphic(startImage);
     }
 
+    private void startBurst(int frames) {
+        CameraSession session = currentSession;
+        if (snapshotExporter == null || session == null || (currentBurst != null && !currentBurst.isDone())) {
+            return;
+        }
+
+        SnapshotExporter.Burst burst = snapshotExporter.startBurst(session.getCamera().getName(), frames);
+        logger.debug("Taking {} frames of camera '{}'.", frames, session.getCamera());
+        currentBurst = burst;
+        session.getCamera().setBurst(burst);
+        snapshotButton.setDisable(true);
+        burstButton.setDisable(true);
+        snapshotLabel.setVisible(true);
+    }
+
+    /**
+     * Shows the progress of the current snapshot or burst, and enables them again once it is written.
+     */
+    private void updateBurst() {
+        SnapshotExporter.Burst burst = currentBurst;
+        if (burst == null) {
+            return;
+        }
+
+        String text = String.format(Util.getString("snapshot.progress"), burst.getWritten(), burst.getRequested());
+        if (burst.getDropped() + burst.getFailed() > 0) {
+            text += String.format(Util.getString("snapshot.lost"), burst.getDropped() + burst.getFailed());
+        }
+        snapshotLabel.setText(text);
+
+        if (burst.isDone()) {
+            currentBurst = null;
+            boolean disabled = currentCamera == null;
+            snapshotButton.setDisable(disabled);
+            burstButton.setDisable(disabled);
+        }
+    }
+
+    private void stopReplay() {
+        if (mainDisplay != null) {
+            mainDisplay.resume();
+        }
+
+        if (Platform.isFxApplicationThread()) {
+            replayButton.setSelected(false);
+            replaySlider.setVisible(false);
+            replaySlider.setManaged(false);
+        }
+    }
+
+    /**
+     * Stops taking the frames of the current burst; the ones already taken are still saved.
+     */
+    private void stopBurst() {
+        SnapshotExporter.Burst burst = currentBurst;
+        CameraSession session = currentSession;
+        if (burst != null) {
+            burst.cancel();
+        }
+        if (session != null) {
+            session.getCamera().setBurst(null);
+        }
+    }
+
+    /**
+     * Stops showing the current camera, leaving its session idle in the pool.
+     */
+    private void releaseCamera() {
+        stopReplay();
+        stopBurst();
+
+        CameraSession session = currentSession;
+        if (session != null) {
+            sessionPool.release(session);
+        }
+        currentSession = null;
+    }
+
     private void disposeCamera() {
-        stopCamera = true;
+        stopReplay();
+        stopBurst();
+
+        CameraSession session = currentSession;
+        if (session != null) {
+            session.stop();
+        }
+        currentSession = null;
     }
 
-    private class SwitchCameraTask extends Task<Void> {
-        private CameraInfo cameraInfo;
+    private void startMainSession() {
+        if (currentCamera == null || (currentSession != null && currentSession.isRunning())) {
+            return;
+        }
+
+        stopReplay();
 
-        public SwitchCameraTask(CameraInfo cameraInfo) {
-            this.cameraInfo = cameraInfo;
+        CameraSession session = sessionPool.take(currentCamera);
+        if (session == null) {
+            session = startSession(currentCamera, true);
         }
+        currentSession = session;
+        mainDisplay = new SessionDisplay(session, imageProperty, imageSize, null);
+        if (latencyProbe) {
+            mainDisplay.setLatencyProbe(new LatencyProbe());
+        }
+    }
 
-        @Override
-        protected Void call() throws Exception {
-            if (currentCamera != null) {
-                disposeCamera();
-            }
+    private CameraSession startSession(CameraInfo camera, boolean replay) {
+        camera.setViewSize(viewSize);
+        camera.setFrameRate(frameRate);
+        camera.setRenderMode(renderMode);
 
-            currentCamera = cameraInfo;
-            logger.debug("Connecting camera '{}'.", currentCamera);
+        CameraSession session = new CameraSession(camera);
+        session.setStatsLogPeriod(statsLogPeriod);
+        session.setPreviewServer(previewServer);
+        if (replay && replayBudget > 0) {
+            session.setReplayBuffer(new ReplayBuffer(replayBudget));
+        }
+        if (recordDirectory != null) {
+            session.setRecorder(new FrameRecorder(recordDirectory, camera.getName(), recordSegmentSize,
+                    recordSegmentAge));
+        }
+        captureService.start(session);
+        return session;
+    }
 
-            Platform.runLater(new Runnable() {
+    private void startGrid() {
+        gridPane = new TilePane();
+        gridPane.setHgap(Util.GRID_GAP);
+        gridPane.setVgap(Util.GRID_GAP);
 
-                @Override
-                public void run() {
-                    adjustSize(0, 0);
-                    Util.startDaemonTask(new RetrieveAndDisplayTask());
-                }
-            });
+        for (CameraInfo cameraInfo : selectBox.getItems()) {
+            // a camera of its own, so that the settings of the single view are left untouched
+            CameraInfo tileCamera = new CameraInfo(cameraInfo.getSource().copy());
+            gridTiles.add(new GridTile(startSession(tileCamera, false)));
+        }
+        logger.debug("Started grid of {} cameras.", gridTiles.size());
 
-            return null;
+        for (GridTile tile : gridTiles) {
+            gridPane.getChildren().add(tile.pane);
         }
+        cameraPane.setCenter(gridPane);
+        layoutGrid(cameraPane.getWidth(), cameraPane.getHeight());
     }
 
-    private class RetrieveAndDisplayTask extends Task<Void> {
+    private void stopGrid() {
+        for (GridTile tile : gridTiles) {
+            tile.display.getSession().stop();
+        }
+        gridTiles.clear();
 
-        @Override
-        protected Void call() throws Exception {
-            stopCamera = false;
+        if (gridPane != null && Platform.isFxApplicationThread()) {
+            gridPane = null;
+            cameraPane.setCenter(cameraImage);
+        }
+    }
 
-            if (currentCamera == null) {
-                return null;
-            }
-            currentCamera.setViewSize(viewSize);
-            currentCamera.setFrameRate(frameRate);
+    private void layoutGrid(double width, double height) {
+        int tileCount = gridTiles.size();
+        if (tileCount == 0) {
+            return;
+        }
 
-            logger.debug("Starting stream on camera '{}'.", currentCamera);
+        int columns = (int) Math.ceil(Math.sqrt(tileCount));
+        int rows = (tileCount + columns - 1) / columns;
+        double tileWidth = Math.max(1, (width - (columns - 1) * Util.GRID_GAP) / columns);
+        double tileHeight = Math.max(1, (height - (rows - 1) * Util.GRID_GAP) / rows);
 
-            try {
-                currentCamera.open();
-            } catch (VideoInputException e) {
-                logger.warn(null, e);
-                return null;
-            }
+        gridPane.setPrefColumns(columns);
+        gridPane.setPrefTileWidth(tileWidth);
+        gridPane.setPrefTileHeight(tileHeight);
+        for (GridTile tile : gridTiles) {
+            tile.resize(tileWidth, tileHeight);
+        }
+    }
 
-            final long interval = Util.ONE_SECOND_IN_NANOS / currentCamera.getFrameRate();
-            long lastReportTime = -1;
-            long imgCnt = 0;
+    /**
+     * A cell of the grid, showing a camera with its own frame rate and dropped frames, and its name in red when
+     * the feed looks wrong.
+     */
+    private static class GridTile {
+
+        private final ImageView view = new ImageView();
+        private final Label label;
+        private final BorderPane pane;
+        private final SessionDisplay display;
+        private boolean alertShown = false;
+
+        public GridTile(CameraSession session) {
+            CameraInfo camera = session.getCamera();
+
+            label = new Label(camera.getName());
+            view.setPreserveRatio(true);
+            pane = new BorderPane(view);
+            pane.setBottom(label);
+            display = new SessionDisplay(session, view.imageProperty(), label.textProperty(), camera.getName());
+        }
 
-            while (!stopCamera) {
-                long start = System.nanoTime();
-                try {
-                    final BufferedImage grabbedImage = currentCamera.grabFrame();
-                    if (grabbedImage != null) {
-                        imgCnt++;
-
-                        long now = System.nanoTime();
-                        if (lastReportTime != -1 && now - lastReportTime >= Util.ONE_SECOND_IN_NANOS) {
-                            final double videoFps =
-                                    ((double) imgCnt * Util.ONE_SECOND_IN_NANOS) / (now - lastReportTime);
-
-                            Platform.runLater(new Runnable() {
-                                @Override
-                                public void run() {
-                                    imageSize.setValue(String.format(
-                                            Util.getString("app.imageSizeDescr"),
-                                            currentCamera.getViewSize().width,
-                                            currentCamera.getViewSize().height,
-                                            videoFps));
-                                }
-                            });
-
-                            imgCnt = 0;
-                            lastReportTime = now;
-                        } else if (lastReportTime == -1) {
-                            lastReportTime = now;
-                        }
+        public void resize(double width, double height) {
+            double imageHeight = Math.max(1, height - Util.GRID_LABEL_HEIGHT);
+            view.setFitWidth(width);
+            view.setFitHeight(imageHeight);
+            display.getSession().getCamera().setDisplaySize(new Dimension((int) width, (int) imageHeight));
+        }
 
-                        Platform.runLater(new Runnable() {
-                            @Override
-                            public void run() {
-                                imageProperty.set(SwingFXUtils.toFXImage(grabbedImage, null));
-                            }
-                        });
-                    }
-                } catch (Exception e) {
-                    logger.warn(null, e);
-                } finally {
-                    long end = System.nanoTime();
-                    long waitTime = interval - (end - start);
-                    if (waitTime > 0) {
-                        LockSupport.parkNanos(waitTime);
-                    }
-                }
-            }
+        public void update(long now) {
+            display.update(now);
 
-            logger.debug("Stopping stream on camera '{}'.", currentCamera);
+            boolean alert = display.isFeedAlert();
+            if (alert != alertShown) {
+                label.setStyle(alert ? Util.FEED_ALERT_STYLE : "");
+                alertShown = alert;
+            }
+        }
+    }
 
-            currentCamera.close();
+    /**
+     * Displays the latest grabbed frame of every session once per pulse.
+     */
+    private class DisplayTimer extends AnimationTimer {
 
-            return null;
+        @Override
+        public void handle(long now) {
+            if (mainDisplay != null) {
+                mainDisplay.update(now);
+                if (mainDisplay.isPaused()) {
+                    replaySlider.setMin(mainDisplay.getReplayStart());
+                }
+            }
+            for (GridTile tile : gridTiles) {
+                tile.update(now);
+            }
+            updateBurst();
         }
     }
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import org.bridj.Pointer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A view of the native memory where jvideoinput keeps a frame, so the frame can be read from there without
+ * materialising its bytes in a Java array.
+ * <p>
+ * jvideoinput does not publish that memory, so the frame is searched for a BridJ {@link Pointer} or a direct
+ * {@link ByteBuffer} of the frame size. What is found is checked once against the bytes of the frame: if they
+ * differ, or nothing is found, the buffer is not used and the frame is read as an array. A frame of a single
+ * colour, such as the black frames of a device still starting, proves nothing and is not checked.
+ * <p>
+ * Nor does jvideoinput say who owns that memory after a grab. It is read only until the next grab, on the capture
+ * thread, as the array of the frame would be: converted there, or copied for the thread of the conversion.
+ */
+final class NativeFrameBuffer {
+
+    private static final Logger logger = LoggerFactory.getLogger(NativeFrameBuffer.class);
+
+    private final Field field;
+    private long peer;
+    private ByteBuffer view;
+
+    private NativeFrameBuffer(Field field) {
+        this.field = field;
+    }
+
+    /**
+     * Looks for the native memory of the given frame, which must hold packed RGB bytes.
+     *
+     * @return the buffer, or <code>null</code> if it is not found
+     */
+    public static NativeFrameBuffer probe(Object frame, byte[] rawData) {
+        if (!isProbeable(rawData)) {
+            return null;
+        }
+
+        for (Class<?> type = frame.getClass(); type != null && type != Object.class; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                if (!Pointer.class.isAssignableFrom(field.getType())
+                        && !ByteBuffer.class.isAssignableFrom(field.getType())) {
+                    continue;
+                }
+
+                try {
+                    field.setAccessible(true);
+                } catch (RuntimeException e) {
+                    continue;
+                }
+                NativeFrameBuffer buffer = new NativeFrameBuffer(field);
+                ByteBuffer view = buffer.getView(frame, rawData.length);
+                if (view != null && matches(view, rawData)) {
+                    logger.debug("Reading frames in place from {}.{}.", type.getName(), field.getName());
+                    return buffer;
+                }
+            }
+        }
+        logger.debug("No native frame buffer found in {}.", frame.getClass().getName());
+        return null;
+    }
+
+    /**
+     * Returns the memory of the given frame, or <code>null</code> if it is not available.
+     */
+    public ByteBuffer getView(Object frame, int length) {
+        Object value;
+        try {
+            value = field.get(frame);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+
+        if (value instanceof Pointer) {
+            Pointer<?> pointer = (Pointer<?>) value;
+            if (view == null || pointer.getPeer() != peer || view.capacity() < length) {
+                // the memory has been reallocated
+                try {
+                    view = pointer.getByteBuffer(length);
+                } catch (RuntimeException e) {
+                    // a bounded pointer shorter than the frame
+                    view = null;
+                    return null;
+                }
+                peer = pointer.getPeer();
+            }
+        } else if (value instanceof ByteBuffer && ((ByteBuffer) value).isDirect()) {
+            ByteBuffer buffer = (ByteBuffer) value;
+            view = buffer;
+        } else {
+            return null;
+        }
+        return view.capacity() < length ? null : view;
+    }
+
+    /**
+     * Returns whether a frame can tell its memory from any other memory of the same size.
+     */
+    public static boolean isProbeable(byte[] rawData) {
+        if (rawData == null || rawData.length < 3) {
+            return false;
+        }
+        for (int i = 3; i < rawData.length; i++) {
+            if (rawData[i] != rawData[i % 3]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(ByteBuffer view, byte[] rawData) {
+        if (view.capacity() < rawData.length) {
+            return false;
+        }
+
+        byte[] copy = new byte[rawData.length];
+        Util.getFrameView(view, rawData.length).get(copy);
+        return Arrays.equals(copy, rawData);
+    }
+}
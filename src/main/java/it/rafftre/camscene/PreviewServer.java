@@ -0,0 +1,452 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves the cameras open as MJPEG streams over HTTP, for browsers on other machines:
+ * <ul>
+ * <li><code>/</code> lists the cameras;</li>
+ * <li><code>/camera/NAME</code> is the stream of a camera;</li>
+ * <li><code>/stats</code> gives the frames encoded for every camera and the throughput of every client.</li>
+ * </ul>
+ * Every frame is encoded once, on a thread of the camera, whatever the number of clients; each client has a short
+ * queue of its own, from which the oldest frame is dropped when the client does not keep up.
+ */
+final class PreviewServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(PreviewServer.class);
+    private static final String BOUNDARY = "frame";
+    private static final String CAMERA_PATH = "/camera/";
+
+    private final int port;
+    private final Map<String, Stream> streams = new TreeMap<>();
+    private final AtomicInteger clientCount = new AtomicInteger();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public PreviewServer(int port) {
+        this.port = port;
+    }
+
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleIndex(exchange);
+            }
+        });
+        server.createContext(CAMERA_PATH, new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleStream(exchange);
+            }
+        });
+        server.createContext("/stats", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleStats(exchange);
+            }
+        });
+
+        // a streaming client holds its thread until it disconnects
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread th = new Thread(r, "preview-http-" + count.incrementAndGet());
+                th.setDaemon(true);
+                return th;
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+
+        logger.info("Serving the cameras on port {}.", server.getAddress().getPort());
+    }
+
+    public synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+
+        for (Stream stream : streams.values()) {
+            stream.close();
+        }
+        streams.clear();
+        server.stop(0);
+        executor.shutdownNow();
+        server = null;
+    }
+
+    /**
+     * Returns the port the server listens on, useful when started on port 0.
+     */
+    public synchronized int getPort() {
+        return server != null ? server.getAddress().getPort() : port;
+    }
+
+    /**
+     * Opens the stream of a camera, replacing the one of another session with the same name.
+     */
+    public synchronized Stream openStream(String name) {
+        Stream stream = new Stream(name);
+        Stream replaced = streams.put(name, stream);
+        if (replaced != null) {
+            replaced.close();
+        }
+        return stream;
+    }
+
+    public synchronized void closeStream(Stream stream) {
+        if (streams.get(stream.name) == stream) {
+            streams.remove(stream.name);
+        }
+        stream.close();
+    }
+
+    private synchronized Stream getStream(String name) {
+        return streams.get(name);
+    }
+
+    private synchronized List<Stream> getStreams() {
+        return new ArrayList<>(streams.values());
+    }
+
+    private void handleIndex(HttpExchange exchange) throws IOException {
+        if (!"/".equals(exchange.getRequestURI().getPath())) {
+            sendText(exchange, 404, "text/plain", "Not found.");
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder("<!DOCTYPE html><html><head><meta charset=\"UTF-8\"><title>")
+                .append(Util.getString("app.name")).append("</title></head><body><ul>");
+        for (Stream stream : getStreams()) {
+            sb.append("<li><a href=\"").append(getStreamPath(stream.name)).append("\">")
+                    .append(escapeHtml(stream.name)).append("</a></li>");
+        }
+        sb.append("</ul><p><a href=\"/stats\">stats</a></p></body></html>");
+
+        sendText(exchange, 200, "text/html; charset=UTF-8", sb.toString());
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Stream stream : getStreams()) {
+            sb.append(stream.getSummary()).append('\n');
+            for (Client client : stream.clients) {
+                sb.append("  ").append(client.getSummary()).append('\n');
+            }
+        }
+
+        sendText(exchange, 200, "text/plain; charset=UTF-8", sb.toString());
+    }
+
+    private void handleStream(HttpExchange exchange) throws IOException {
+        String name = exchange.getRequestURI().getPath().substring(CAMERA_PATH.length());
+        Stream stream = getStream(name);
+        if (stream == null) {
+            sendText(exchange, 404, "text/plain", "No camera '" + name + "'.");
+            return;
+        }
+        if (clientCount.incrementAndGet() > Util.PREVIEW_MAX_CLIENTS) {
+            clientCount.decrementAndGet();
+            sendText(exchange, 503, "text/plain", "Too many clients.");
+            return;
+        }
+
+        Client client = new Client(exchange.getRemoteAddress().toString());
+        logger.debug("Client {} connected to camera '{}'.", client.address, name);
+
+        exchange.getResponseHeaders().set("Content-Type", "multipart/x-mixed-replace; boundary=" + BOUNDARY);
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache, no-store");
+        exchange.sendResponseHeaders(200, 0);
+
+        stream.clients.add(client);
+        try (OutputStream out = exchange.getResponseBody()) {
+            while (!stream.isClosed()) {
+                byte[] jpeg = client.queue.poll(Util.PREVIEW_POLL_MS, TimeUnit.MILLISECONDS);
+                if (jpeg == null) {
+                    continue;
+                }
+
+                byte[] header = ("--" + BOUNDARY + "\r\nContent-Type: image/jpeg\r\nContent-Length: " + jpeg.length
+                        + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+                out.write(header);
+                out.write(jpeg);
+                out.write('\r');
+                out.write('\n');
+                out.flush();
+                client.frameSent(header.length + jpeg.length + 2);
+            }
+        } catch (IOException e) {
+            // the client has disconnected
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stream.clients.remove(client);
+            clientCount.decrementAndGet();
+            exchange.close();
+            logger.debug("Client {} of camera '{}' disconnected: {}.", client.address, name, client.getSummary());
+        }
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String contentType, String text)
+            throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static String getStreamPath(String name) {
+        try {
+            return new URI(null, null, CAMERA_PATH + name, null).getRawPath();
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static String escapeHtml(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    /**
+     * The frames of a camera, encoded once for every client.
+     */
+    static final class Stream implements Runnable {
+
+        private final String name;
+        private final List<Client> clients = new CopyOnWriteArrayList<>();
+        private final Thread encoder;
+        private volatile boolean closed = false;
+
+        // the frame handed over by the capture thread, guarded by this, swapped with the one being converted
+        private byte[] pending;
+        private byte[] converting;
+        private int pendingWidth;
+        private int pendingHeight;
+        private boolean pendingFull = false;
+
+        private final AtomicLong encodedFrames = new AtomicLong();
+        private final AtomicLong skippedFrames = new AtomicLong();
+        private final AtomicLong encodeNanos = new AtomicLong();
+        private volatile int lastSize;
+
+        private Stream(String name) {
+            this.name = name;
+            this.encoder = new Thread(this, "preview-" + name);
+            encoder.setDaemon(true);
+            encoder.start();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * Hands a packed RGB frame over for encoding; the frame is skipped if the previous one is still being
+         * encoded or if no client is connected. It never waits on the encoder.
+         */
+        public void offer(ByteBuffer rgb, int width, int height) {
+            if (closed || clients.isEmpty()) {
+                return;
+            }
+
+            synchronized (this) {
+                if (pendingFull) {
+                    skippedFrames.incrementAndGet();
+                    return;
+                }
+                if (pending == null || pending.length != width * height * 3) {
+                    pending = new byte[width * height * 3];
+                }
+                Util.getFrameView(rgb, pending.length).get(pending);
+                pendingWidth = width;
+                pendingHeight = height;
+                pendingFull = true;
+                notifyAll();
+            }
+        }
+
+        private synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+
+        @Override
+        public void run() {
+            ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(Util.PREVIEW_JPEG_QUALITY);
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            BufferedImage image = null;
+
+            try {
+                while (true) {
+                    int width;
+                    int height;
+                    synchronized (this) {
+                        while (!pendingFull && !closed) {
+                            wait();
+                        }
+                        if (closed) {
+                            return;
+                        }
+
+                        byte[] frame = pending;
+                        pending = converting;
+                        converting = frame;
+                        width = pendingWidth;
+                        height = pendingHeight;
+                        pendingFull = false;
+                    }
+
+                    if (image == null || image.getWidth() != width || image.getHeight() != height) {
+                        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                    }
+                    FrameConverter.convert(converting, ((DataBufferInt) image.getRaster().getDataBuffer()).getData(),
+                            width, height);
+
+                    long start = System.nanoTime();
+                    buffer.reset();
+                    try (ImageOutputStream output = ImageIO.createImageOutputStream(buffer)) {
+                        writer.setOutput(output);
+                        writer.write(null, new IIOImage(image, null, null), param);
+                    } catch (IOException e) {
+                        logger.warn("Cannot encode a frame of camera '" + name + "'.", e);
+                        continue;
+                    }
+                    byte[] jpeg = buffer.toByteArray();
+                    encodeNanos.addAndGet(System.nanoTime() - start);
+                    encodedFrames.incrementAndGet();
+                    lastSize = jpeg.length;
+
+                    for (Client client : clients) {
+                        client.offer(jpeg);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                writer.dispose();
+            }
+        }
+
+        public String getSummary() {
+            long encoded = encodedFrames.get();
+            return String.format("%s: %d clients, %d frames encoded (%.1f ms, %d KB each), %d skipped", name,
+                    clients.size(), encoded, encoded > 0 ? encodeNanos.get() / 1e6 / encoded : 0.0,
+                    lastSize / 1024, skippedFrames.get());
+        }
+    }
+
+    /**
+     * A client of a stream, with its queue of encoded frames.
+     */
+    private static final class Client {
+
+        private final String address;
+        private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(Util.PREVIEW_CLIENT_QUEUE);
+        private final long connectedAt = System.nanoTime();
+        private final AtomicLong sentFrames = new AtomicLong();
+        private final AtomicLong sentBytes = new AtomicLong();
+        private final AtomicLong droppedFrames = new AtomicLong();
+
+        public Client(String address) {
+            this.address = address;
+        }
+
+        public void offer(byte[] jpeg) {
+            while (!queue.offer(jpeg)) {
+                // the client is behind: the oldest frame is of no use anymore
+                if (queue.poll() != null) {
+                    droppedFrames.incrementAndGet();
+                }
+            }
+        }
+
+        public void frameSent(int bytes) {
+            sentFrames.incrementAndGet();
+            sentBytes.addAndGet(bytes);
+        }
+
+        public String getSummary() {
+            double seconds = Math.max(1e-3, (System.nanoTime() - connectedAt) / 1e9);
+            return String.format("%s: %.0f s, %d frames sent (%.1f fps, %.0f kbit/s), %d dropped", address,
+                    seconds, sentFrames.get(), sentFrames.get() / seconds, sentBytes.get() * 8 / 1000.0 / seconds,
+                    droppedFrames.get());
+        }
+    }
+}
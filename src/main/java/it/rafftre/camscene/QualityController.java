@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lowers the quality of the frames shown when the pipeline does not keep up, and raises it back when there is
+ * headroom again. Once a second the share of time spent converting (on the capture thread) and rendering (on the
+ * JavaFX thread) is measured, along with the frames replaced in the mailbox before being shown and the time they
+ * wait there. The grab time is not considered: it is mostly spent waiting for the device, which
+ * {@link FramePacer} already adapts to.
+ * <p>
+ * The quality is lowered after {@link #DOWN_WINDOWS} overloaded seconds in a row, and raised after
+ * {@link #UP_WINDOWS} seconds in which the loads, scaled by the cost of the level above, stay well below the
+ * limits; every change is followed by {@link #HOLD_WINDOWS} seconds that are not counted, so the next change is
+ * decided on the loads of the new level only. Must be used by the capture
+ * thread only.
+ */
+final class QualityController {
+
+    /**
+     * The quality levels, from the best to the lowest; each one keeps the reductions of the previous ones.
+     */
+    enum Level {
+        /** The frames are shown at the display size. */
+        FULL(1, 1),
+        /** The frames are scaled to half the display size. */
+        REDUCED_SIZE(1, 4),
+        /** Every other frame is neither converted nor shown; the recording and the replay still get them all. */
+        HALF_FRAMES(2, 2),
+        /** The camera is captured at half the requested frame rate. */
+        REDUCED_RATE(2, 2);
+
+        // how much the loads grow going back to the previous level: scaling reads every source pixel anyway
+        private final double convertStepUpCost;
+        private final double renderStepUpCost;
+
+        Level(double convertStepUpCost, double renderStepUpCost) {
+            this.convertStepUpCost = convertStepUpCost;
+            this.renderStepUpCost = renderStepUpCost;
+        }
+    }
+
+    static final double MAX_CONVERT_LOAD = 0.7;
+    static final double MAX_RENDER_LOAD = 0.5;
+    static final double MAX_DROP_RATIO = 0.2;
+    static final double HEADROOM_LOAD = 0.7;
+    static final double HEADROOM_DROP_RATIO = 0.02;
+    static final long MAX_HANDOFF_NANOS = 50000000L;
+    static final int DOWN_WINDOWS = 2;
+    static final int UP_WINDOWS = 5;
+    static final int HOLD_WINDOWS = 3;
+
+    private static final Logger logger = LoggerFactory.getLogger(QualityController.class);
+
+    private final String cameraName;
+    private final CameraStats stats;
+    private final FrameMailbox mailbox;
+
+    private volatile Level level = Level.FULL;
+    private long windowStart = -1;
+    private long convertNanos;
+    private long renderNanos;
+    private long handoffNanos;
+    private long handoffCount;
+    private long postedFrames;
+    private long droppedFrames;
+    private int overloadedWindows;
+    private int headroomWindows;
+    private int holdWindows;
+
+    public QualityController(String cameraName, CameraStats stats, FrameMailbox mailbox) {
+        this.cameraName = cameraName;
+        this.stats = stats;
+        this.mailbox = mailbox;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Starts measuring again, e.g. after the frames stopped being shown for a while.
+     */
+    public void restart() {
+        windowStart = -1;
+        overloadedWindows = 0;
+        headroomWindows = 0;
+    }
+
+    /**
+     * Measures the load of the last window, if a window has passed, and moves to another level when needed.
+     *
+     * @return the level to apply
+     */
+    public Level evaluate(long now) {
+        if (windowStart == -1) {
+            startWindow(now);
+            return level;
+        }
+        long window = now - windowStart;
+        if (window < Util.ONE_SECOND_IN_NANOS) {
+            return level;
+        }
+
+        StageTimer convert = stats.getConvertTimer();
+        StageTimer render = stats.getRenderTimer();
+        StageTimer handoff = stats.getHandoffTimer();
+        double convertLoad = (double) (convert.getTotalNanos() - convertNanos) / window;
+        double renderLoad = (double) (render.getTotalNanos() - renderNanos) / window;
+        long handoffs = handoff.getTotalCount() - handoffCount;
+        long handoffMean = handoffs > 0 ? (handoff.getTotalNanos() - handoffNanos) / handoffs : 0;
+        long posted = mailbox.getPostedFrames() - postedFrames;
+        double dropRatio = posted > 0 ? (double) (mailbox.getDroppedFrames() - droppedFrames) / posted : 0;
+        startWindow(now);
+
+        double load = Math.max(convertLoad / MAX_CONVERT_LOAD, renderLoad / MAX_RENDER_LOAD);
+        boolean overloaded = load > 1 || dropRatio > MAX_DROP_RATIO || handoffMean > MAX_HANDOFF_NANOS;
+        double stepUpLoad = Math.max(convertLoad * level.convertStepUpCost / MAX_CONVERT_LOAD,
+                renderLoad * level.renderStepUpCost / MAX_RENDER_LOAD);
+        boolean headroom = !overloaded && stepUpLoad < HEADROOM_LOAD && dropRatio < HEADROOM_DROP_RATIO;
+
+        if (holdWindows > 0) {
+            // the seconds right after a change do not count towards the next one
+            holdWindows--;
+            return level;
+        }
+        overloadedWindows = overloaded ? overloadedWindows + 1 : 0;
+        headroomWindows = headroom ? headroomWindows + 1 : 0;
+
+        Level[] levels = Level.values();
+        if (overloadedWindows >= DOWN_WINDOWS && level.ordinal() < levels.length - 1) {
+            changeLevel(levels[level.ordinal() + 1], convertLoad, renderLoad, dropRatio, handoffMean);
+        } else if (headroomWindows >= UP_WINDOWS && level.ordinal() > 0) {
+            changeLevel(levels[level.ordinal() - 1], convertLoad, renderLoad, dropRatio, handoffMean);
+        }
+        return level;
+    }
+
+    private void changeLevel(Level newLevel, double convertLoad, double renderLoad, double dropRatio,
+                             long handoffMean) {
+        logger.info("Camera '{}': quality {} (convert {}%, render {}%, {}% replaced, handoff {} ms).", cameraName,
+                newLevel.name().toLowerCase(), Math.round(convertLoad * 100), Math.round(renderLoad * 100),
+                Math.round(dropRatio * 100), handoffMean / 1000000);
+
+        level = newLevel;
+        overloadedWindows = 0;
+        headroomWindows = 0;
+        holdWindows = HOLD_WINDOWS;
+    }
+
+    private void startWindow(long now) {
+        windowStart = now;
+        convertNanos = stats.getConvertTimer().getTotalNanos();
+        renderNanos = stats.getRenderTimer().getTotalNanos();
+        handoffNanos = stats.getHandoffTimer().getTotalNanos();
+        handoffCount = stats.getHandoffTimer().getTotalCount();
+        postedFrames = mailbox.getPostedFrames();
+        droppedFrames = mailbox.getDroppedFrames();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+
+/**
+ * A grabbed frame on its way from the capture to the taps and the conversion: its packed RGB bytes, read where the
+ * source keeps them or copied in the own array of the frame, or the image of a source that has no packed bytes.
+ */
+final class RawFrame {
+
+    private ByteBuffer ownData;
+    private ByteBuffer data;
+    private BufferedImage image;
+    private int width;
+    private int height;
+    private long timestamp;
+    private long wallTime;
+    private boolean converted;
+
+    /**
+     * Sets the packed RGB bytes of the frame.
+     *
+     * @param copy whether the bytes are copied, since the source overwrites them with the next grab
+     */
+    public void setData(ByteBuffer data, int width, int height, boolean copy) {
+        int length = width * height * 3;
+        if (copy) {
+            if (ownData == null || ownData.capacity() != length) {
+                ownData = ByteBuffer.wrap(new byte[length]);
+            }
+            ownData.clear();
+            ownData.put(Util.getFrameView(data, length));
+            data = ownData;
+        }
+
+        this.data = data;
+        this.image = null;
+        this.width = width;
+        this.height = height;
+    }
+
+    public void setImage(BufferedImage image, int width, int height) {
+        this.data = null;
+        this.image = image;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * The packed RGB bytes, from index 0; <code>null</code> if the frame has an image instead.
+     */
+    public ByteBuffer getData() {
+        return data;
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * The time, as given by {@link System#nanoTime()}, at which the frame has been grabbed.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * The time, in milliseconds since the epoch, at which the frame has been grabbed.
+     */
+    public long getWallTime() {
+        return wallTime;
+    }
+
+    public void setWallTime(long wallTime) {
+        this.wallTime = wallTime;
+    }
+
+    /**
+     * Whether the frame is to be converted for the display, besides being handed to the taps.
+     */
+    public boolean isConverted() {
+        return converted;
+    }
+
+    public void setConverted(boolean converted) {
+        this.converted = converted;
+    }
+
+    /**
+     * Drops the references to the bytes of the source, keeping the own array for the next frame.
+     */
+    public void clear() {
+        data = null;
+        image = null;
+    }
+}
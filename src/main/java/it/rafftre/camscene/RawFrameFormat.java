@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The layout of the files of raw frames: a header (magic, version, width, height, frame rate as ints) followed by
+ * the frames, each made of its timestamp in milliseconds since the epoch, as a long, and its packed RGB bytes.
+ * A timestamp of 0 marks the end of the frames, so that a file can be allocated in advance.
+ */
+final class RawFrameFormat {
+
+    static final int MAGIC = 0x43535246; // CSRF
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 5 * 4;
+    static final int FRAME_HEADER_SIZE = 8;
+
+    private RawFrameFormat() {
+    }
+
+    public static int getFrameSize(int width, int height) {
+        return FRAME_HEADER_SIZE + width * height * 3;
+    }
+
+    public static void writeHeader(ByteBuffer buffer, int width, int height, int frameRate) {
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(width);
+        buffer.putInt(height);
+        buffer.putInt(frameRate);
+    }
+
+    /**
+     * Reads a header and returns width, height and frame rate.
+     */
+    public static int[] readHeader(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a raw frame file.");
+        }
+
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported raw frame file version " + version + ".");
+        }
+
+        return new int[]{buffer.getInt(), buffer.getInt(), buffer.getInt()};
+    }
+}
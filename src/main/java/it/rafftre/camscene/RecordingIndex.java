@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Finds the recorded frames by time. The segments of a recording are named after the recording and the
+ * timestamp of their first frame, so the segment of a given time is found listing the directory; the index file
+ * of a segment holds the timestamps of its frames as longs, in order and followed by zeros, so the frame is found
+ * with a binary search reading only a few entries.
+ */
+final class RecordingIndex {
+
+    static final String SEGMENT_EXTENSION = ".raw";
+    static final String INDEX_EXTENSION = ".idx";
+
+    private RecordingIndex() {
+    }
+
+    /**
+     * The name of a camera made safe for a file name.
+     */
+    public static String getRecordingName(String cameraName) {
+        return cameraName.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    public static String getSegmentName(String recordingName, long startTime) {
+        return recordingName + "-" + startTime + SEGMENT_EXTENSION;
+    }
+
+    public static File getIndexFile(File segment) {
+        String name = segment.getName();
+        if (name.endsWith(SEGMENT_EXTENSION)) {
+            name = name.substring(0, name.length() - SEGMENT_EXTENSION.length());
+        }
+
+        return new File(segment.getParentFile(), name + INDEX_EXTENSION);
+    }
+
+    /**
+     * Returns the segment of a recording containing the given time, that is the last one started before it, or
+     * the first segment if the time comes before all of them; <code>null</code> if there are no segments.
+     */
+    public static File findSegment(File directory, String recordingName, long time) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return null;
+        }
+
+        String prefix = recordingName + "-";
+        File found = null;
+        long foundStart = 0;
+        File first = null;
+        long firstStart = Long.MAX_VALUE;
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(prefix) || !name.endsWith(SEGMENT_EXTENSION)) {
+                continue;
+            }
+
+            long start;
+            try {
+                start = Long.parseLong(name.substring(prefix.length(), name.length() - SEGMENT_EXTENSION.length()));
+            } catch (NumberFormatException e) {
+                continue; // another recording whose name starts the same
+            }
+
+            if (start <= time && (found == null || start > foundStart)) {
+                found = file;
+                foundStart = start;
+            }
+            if (start < firstStart) {
+                first = file;
+                firstStart = start;
+            }
+        }
+
+        return found != null ? found : first;
+    }
+
+    /**
+     * Returns the number of the last frame of a segment grabbed at or before the given time (0 if the time comes
+     * before all of them), or -1 if the segment has no index.
+     */
+    public static int findFrame(File segment, long time) throws IOException {
+        File indexFile = getIndexFile(segment);
+        if (!indexFile.isFile()) {
+            return -1;
+        }
+
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer entry = ByteBuffer.allocate(8);
+            int low = 0;
+            int high = (int) (channel.size() / 8) - 1;
+            int found = 0;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                long timestamp = readEntry(channel, entry, middle);
+
+                // the entries after the last frame are 0, treated as later than any time
+                if (timestamp != 0 && timestamp <= time) {
+                    found = middle;
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+
+            return found;
+        }
+    }
+
+    private static long readEntry(FileChannel channel, ByteBuffer entry, int number) throws IOException {
+        entry.clear();
+        while (entry.hasRemaining()) {
+            if (channel.read(entry, (long) number * 8 + entry.position()) < 0) {
+                return 0;
+            }
+        }
+
+        return entry.getLong(0);
+    }
+}
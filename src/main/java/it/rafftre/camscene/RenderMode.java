@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+enum RenderMode {
+
+    /**
+     * The raw RGB bytes are written straight into the displayed image.
+     */
+    DIRECT,
+
+    /**
+     * Every frame is converted in an ARGB BufferedImage and then in a JavaFX image.
+     */
+    BUFFERED_IMAGE,
+
+    /**
+     * Every frame is converted in ARGB and compared with the previous one: only the changed tiles are written into
+     * the displayed image, and the frames with no changes are not displayed at all.
+     */
+    TILES;
+
+    public static RenderMode fromString(String value) {
+        for (RenderMode mode : values()) {
+            if (mode.name().replace("_", "").equalsIgnoreCase(value.replace("_", ""))) {
+                return mode;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown render mode: " + value);
+    }
+}
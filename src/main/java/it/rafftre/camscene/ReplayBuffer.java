@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps the last grabbed frames of a camera, at full size, for an instant replay. The frames are stored in a ring
+ * of direct buffers, allocated once for the frame size and filling the given memory budget, so the replay does not
+ * weigh on the heap. Every frame gets a sequence number, by which it is read back as long as it has not been
+ * overwritten.
+ * <p>
+ * Frames are added by the capture thread only; reading locks just the slot being read.
+ */
+final class ReplayBuffer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplayBuffer.class);
+
+    private final long budget;
+    private volatile Slot[] slots;
+    private volatile long firstSequence = 0;
+    private volatile long newestSequence = -1;
+    private boolean disabled = false;
+
+    /**
+     * @param budget the memory, in bytes, to use for the frames
+     */
+    public ReplayBuffer(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * The number of frames that fit in the ring, 0 before the first frame.
+     */
+    public int getCapacity() {
+        Slot[] ring = slots;
+        return ring != null ? ring.length : 0;
+    }
+
+    /**
+     * The sequence number of the latest frame, -1 if there is none.
+     */
+    public long getNewest() {
+        return newestSequence;
+    }
+
+    /**
+     * The sequence number of the oldest frame that can still be read, the frame after it being the next one to
+     * be overwritten; the one after the latest frame when there is none.
+     */
+    public long getOldest() {
+        Slot[] ring = slots;
+        long newest = newestSequence;
+        if (ring == null) {
+            return newest + 1;
+        }
+        return Math.max(firstSequence, newest - ring.length + 2);
+    }
+
+    /**
+     * Adds a frame of packed RGB bytes, overwriting the oldest one. Called on the capture thread.
+     *
+     * @param timestamp the grab time as given by {@link System#nanoTime()}
+     */
+    public void add(ByteBuffer rgbData, int width, int height, long timestamp) {
+        Slot[] ring = slots;
+        if (disabled) {
+            return;
+        }
+        if (ring == null || ring[0].width != width || ring[0].height != height) {
+            ring = allocate(width, height);
+            if (ring == null) {
+                return;
+            }
+        }
+
+        long sequence = newestSequence + 1;
+        Slot slot = ring[(int) (sequence % ring.length)];
+        synchronized (slot) {
+            slot.data.clear();
+            slot.data.put(Util.getFrameView(rgbData, width * height * 3));
+            slot.timestamp = timestamp;
+            slot.sequence = sequence;
+        }
+        newestSequence = sequence;
+    }
+
+    /**
+     * Hands a frame to a reader, unless it has been overwritten in the meantime.
+     *
+     * @return whether the frame was still available
+     */
+    public boolean read(long sequence, Reader reader) {
+        Slot[] ring = slots;
+        if (ring == null || sequence < 0) {
+            return false;
+        }
+
+        Slot slot = ring[(int) (sequence % ring.length)];
+        synchronized (slot) {
+            if (slot.sequence != sequence) {
+                return false;
+            }
+
+            slot.data.rewind();
+            reader.read(slot.data, slot.width, slot.height, slot.timestamp);
+            return true;
+        }
+    }
+
+    /**
+     * The grab time of a frame, -1 if it has been overwritten.
+     */
+    public long getTimestamp(long sequence) {
+        Slot[] ring = slots;
+        if (ring == null || sequence < 0) {
+            return -1;
+        }
+
+        Slot slot = ring[(int) (sequence % ring.length)];
+        synchronized (slot) {
+            return slot.sequence == sequence ? slot.timestamp : -1;
+        }
+    }
+
+    /**
+     * Drops the frames, giving the memory back once the buffers are collected.
+     */
+    public void clear() {
+        slots = null;
+        firstSequence = newestSequence + 1;
+    }
+
+    private Slot[] allocate(int width, int height) {
+        int frameSize = width * height * 3;
+        int capacity = (int) Math.max(2, Math.min(Integer.MAX_VALUE, budget / frameSize));
+
+        Slot[] ring = new Slot[capacity];
+        try {
+            for (int i = 0; i < capacity; i++) {
+                ring[i] = new Slot(ByteBuffer.allocateDirect(frameSize), width, height);
+            }
+        } catch (OutOfMemoryError e) {
+            logger.warn("Cannot allocate {} replay frames of {}x{}, raise -XX:MaxDirectMemorySize.",
+                    capacity, width, height);
+            slots = null;
+            disabled = true;
+            return null;
+        }
+        logger.debug("Allocated {} replay frames of {}x{}.", capacity, width, height);
+
+        // the frames of another size are gone
+        firstSequence = newestSequence + 1;
+        slots = ring;
+        return ring;
+    }
+
+    /**
+     * Receives a frame of the ring, valid only during the call.
+     */
+    interface Reader {
+
+        void read(ByteBuffer rgbData, int width, int height, long timestamp);
+    }
+
+    private static final class Slot {
+        final ByteBuffer data;
+        final int width;
+        final int height;
+        long timestamp;
+        long sequence = -1;
+
+        Slot(ByteBuffer data, int width, int height) {
+            this.data = data;
+            this.width = width;
+            this.height = height;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Replays in a loop the frames of a file written in the {@link RawFrameFormat}, at the rate of the capture loop.
+ * With a start time, the replay begins from the frame grabbed at that time, found through the {@link RecordingIndex};
+ * the file may then be a recording name (the directory and the name of the recording, without the timestamp) to
+ * replay the segment containing the start time.
+ */
+final class ReplayFrameSource implements FrameSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplayFrameSource.class);
+
+    private final File file;
+    private final long startTime;
+    private FileChannel channel;
+    private int width;
+    private int height;
+    private byte[] data;
+    private ByteBuffer dataBuffer;
+    private final ByteBuffer timestampBuffer = ByteBuffer.allocate(RawFrameFormat.FRAME_HEADER_SIZE);
+    private long timestamp;
+
+    public ReplayFrameSource(File file) {
+        this(file, 0);
+    }
+
+    /**
+     * @param startTime the time of the first frame to replay, in milliseconds since the epoch, or 0
+     */
+    public ReplayFrameSource(File file, long startTime) {
+        this.file = file;
+        this.startTime = startTime;
+    }
+
+    @Override
+    public String getName() {
+        return file.getName();
+    }
+
+    @Override
+    public void open(int width, int height, int frameRate) throws IOException {
+        if (channel != null) {
+            return;
+        }
+
+        File segment = file;
+        if (startTime > 0 && !segment.exists()) {
+            segment = RecordingIndex.findSegment(file.getAbsoluteFile().getParentFile(), file.getName(), startTime);
+            if (segment == null) {
+                throw new FileNotFoundException("No recording '" + file + "'.");
+            }
+        }
+
+        channel = FileChannel.open(Paths.get(segment.getPath()), StandardOpenOption.READ);
+        long start = RawFrameFormat.HEADER_SIZE;
+        try {
+            ByteBuffer header = ByteBuffer.allocate(RawFrameFormat.HEADER_SIZE);
+            readFully(header, 0);
+            header.flip();
+            int[] size = RawFrameFormat.readHeader(header);
+            this.width = size[0];
+            this.height = size[1];
+
+            if (startTime > 0) {
+                int frame = RecordingIndex.findFrame(segment, startTime);
+                if (frame > 0) {
+                    start += (long) frame * RawFrameFormat.getFrameSize(this.width, this.height);
+                }
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+
+        data = new byte[this.width * this.height * 3];
+        dataBuffer = ByteBuffer.wrap(data);
+        channel.position(start);
+    }
+
+    @Override
+    public void close() {
+        if (channel == null) {
+            return;
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("Cannot close '" + file + "'.", e);
+        }
+        channel = null;
+        data = null;
+        dataBuffer = null;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel != null;
+    }
+
+    @Override
+    public boolean isBlocking() {
+        return false;
+    }
+
+    @Override
+    public boolean grab() {
+        if (channel == null) {
+            return false;
+        }
+
+        try {
+            if (!readFrame()) {
+                // back to the first frame
+                channel.position(RawFrameFormat.HEADER_SIZE);
+                if (!readFrame()) {
+                    return false;
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Cannot read '" + file + "'.", e);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * The timestamp of the grabbed frame, in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public byte[] getData() {
+        return data;
+    }
+
+    @Override
+    public ByteBuffer getBuffer() {
+        return null;
+    }
+
+    @Override
+    public BufferedImage getBufferedImage() {
+        return null;
+    }
+
+    @Override
+    public FrameSource copy() {
+        return new ReplayFrameSource(file, startTime);
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    private boolean readFrame() throws IOException {
+        long position = channel.position();
+
+        timestampBuffer.clear();
+        if (!readFully(timestampBuffer, position)) {
+            return false;
+        }
+        timestamp = timestampBuffer.getLong(0);
+        if (timestamp == 0) {
+            return false;
+        }
+
+        dataBuffer.clear();
+        if (!readFully(dataBuffer, position + RawFrameFormat.FRAME_HEADER_SIZE)) {
+            return false;
+        }
+
+        channel.position(position + RawFrameFormat.FRAME_HEADER_SIZE + data.length);
+        return true;
+    }
+
+    private boolean readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+
+        return true;
+    }
+}
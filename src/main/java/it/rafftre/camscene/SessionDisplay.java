@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.StringProperty;
+import javafx.scene.image.Image;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shows the frames of a session in an image and its frame rate in a description.
+ * Must be used on the JavaFX application thread only.
+ */
+final class SessionDisplay {
+
+    private final CameraSession session;
+    private final FrameRenderer renderer = new FrameRenderer();
+    private final ObjectProperty<Image> image;
+    private final StringProperty description;
+    private final String name;
+    private long lastReportTime = -1;
+    private long lastPostedFrames;
+    private int frameWidth;
+    private int frameHeight;
+    private long replayPosition = -1;
+    private long replayEnd;
+    private long replayEndTime;
+    private long replayShown = -1;
+    private LatencyProbe latencyProbe = null;
+
+    public SessionDisplay(CameraSession session, ObjectProperty<Image> image, StringProperty description,
+                          String name) {
+        this.session = session;
+        this.image = image;
+        this.description = description;
+        this.name = name;
+    }
+
+    public CameraSession getSession() {
+        return session;
+    }
+
+    public void setLatencyProbe(LatencyProbe latencyProbe) {
+        this.latencyProbe = latencyProbe;
+    }
+
+    public void update(long now) {
+        FrameMailbox mailbox = session.getMailbox();
+
+        Frame frame = mailbox.take();
+        if (frame != null && replayPosition >= 0) {
+            // the capture goes on during the replay
+            frame.recycle();
+        } else if (frame != null) {
+            CameraStats stats = session.getStats();
+            long takeTime = System.nanoTime();
+            stats.getHandoffTimer().record(frame.getPostTime(), takeTime);
+
+            Image shown = renderer.render(frame);
+            image.set(shown);
+            if (latencyProbe != null) {
+                latencyProbe.frameShown(shown, frame.getSourceWidth());
+            }
+            frameWidth = frame.getSourceWidth();
+            frameHeight = frame.getSourceHeight();
+            frame.recycle();
+            mailbox.frameRendered();
+
+            stats.getRenderTimer().record(takeTime, System.nanoTime());
+        }
+
+        if (replayPosition >= 0) {
+            updateReplay();
+            lastReportTime = -1;
+        } else if (lastReportTime == -1) {
+            lastReportTime = now;
+            lastPostedFrames = mailbox.getPostedFrames();
+        } else if (now - lastReportTime >= Util.ONE_SECOND_IN_NANOS) {
+            long postedFrames = mailbox.getPostedFrames();
+            long frameCount = postedFrames - lastPostedFrames;
+            if (frameCount > 0 && frameWidth > 0) {
+                double videoFps = ((double) frameCount * Util.ONE_SECOND_IN_NANOS) / (now - lastReportTime);
+                if (name == null) {
+                    description.setValue(String.format(Util.getString("app.imageSizeDescr"),
+                            frameWidth, frameHeight, videoFps, getQualityDescription(),
+                            session.getStats().getDroppedFrames()) + getLatencyDescription()
+                            + getFeedDescription());
+                } else {
+                    description.setValue(String.format(Util.getString("grid.tileDescr"),
+                            name, frameWidth, frameHeight, videoFps, getQualityDescription(),
+                            session.getStats().getDroppedFrames()) + getFeedDescription());
+                }
+            }
+
+            lastReportTime = now;
+            lastPostedFrames = postedFrames;
+        }
+    }
+
+    public boolean isFeedAlert() {
+        return session.getAnalyzer().getAlert() != FeedAnalyzer.Alert.NONE;
+    }
+
+    private String getQualityDescription() {
+        QualityController.Level level = session.getQuality().getLevel();
+        return level == QualityController.Level.FULL ? "" : Util.getString("quality." + level.name().toLowerCase());
+    }
+
+    private String getLatencyDescription() {
+        if (latencyProbe == null || latencyProbe.getRecentLatencies().getCount() == 0) {
+            return "";
+        }
+
+        IntervalHistogram latencies = latencyProbe.getRecentLatencies();
+        String descr = String.format(Util.getString("latency.descr"),
+                TimeUnit.NANOSECONDS.toMillis(latencies.getPercentile(50)),
+                TimeUnit.NANOSECONDS.toMillis(latencies.getPercentile(99)));
+        latencies.reset();
+        return descr;
+    }
+
+    private String getFeedDescription() {
+        FeedAnalyzer analyzer = session.getAnalyzer();
+        FeedAnalyzer.Alert alert = analyzer.getAlert();
+        if (alert != FeedAnalyzer.Alert.NONE) {
+            return Util.getString("feed.separator") + Util.getString("feed." + alert.name().toLowerCase());
+        }
+
+        long sceneCutTime = analyzer.getLastSceneCutTime();
+        if (sceneCutTime != 0 && System.nanoTime() - sceneCutTime < Util.SCENE_CUT_SHOW_NANOS) {
+            return Util.getString("feed.separator") + Util.getString("feed.sceneCut");
+        }
+
+        return "";
+    }
+
+    /**
+     * Freezes the display on the latest frame of the instant replay, if the session has one.
+     */
+    public boolean pause() {
+        ReplayBuffer replayBuffer = session.getReplayBuffer();
+        if (replayBuffer == null || replayBuffer.getNewest() < 0) {
+            return false;
+        }
+
+        replayEnd = replayBuffer.getNewest();
+        replayEndTime = replayBuffer.getTimestamp(replayEnd);
+        replayPosition = replayEnd;
+        replayShown = -1;
+        return true;
+    }
+
+    public void resume() {
+        replayPosition = -1;
+    }
+
+    public boolean isPaused() {
+        return replayPosition >= 0;
+    }
+
+    /**
+     * The oldest frame of the replay, moving forward as the ring is overwritten by the capture.
+     */
+    public long getReplayStart() {
+        ReplayBuffer replayBuffer = session.getReplayBuffer();
+        return replayBuffer != null ? Math.min(replayBuffer.getOldest(), replayEnd) : replayEnd;
+    }
+
+    public long getReplayEnd() {
+        return replayEnd;
+    }
+
+    public void setReplayPosition(long position) {
+        if (replayPosition >= 0) {
+            replayPosition = Math.max(getReplayStart(), Math.min(position, replayEnd));
+        }
+    }
+
+    private void updateReplay() {
+        ReplayBuffer replayBuffer = session.getReplayBuffer();
+        if (replayPosition < getReplayStart()) {
+            replayPosition = getReplayStart();
+        }
+        if (replayPosition == replayShown) {
+            return;
+        }
+
+        long timestamp = replayBuffer.getTimestamp(replayPosition);
+        Image replayImage = renderer.render(replayBuffer, replayPosition);
+        if (replayImage != null) {
+            image.set(replayImage);
+            replayShown = replayPosition;
+            double secondsBack = (double) (replayEndTime - timestamp) / Util.ONE_SECOND_IN_NANOS;
+            description.setValue(String.format(Util.getString("replay.descr"),
+                    (int) replayImage.getWidth(), (int) replayImage.getHeight(), secondsBack));
+        }
+    }
+}
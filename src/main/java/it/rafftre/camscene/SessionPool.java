@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the sessions of the cameras recently shown open and idle, so that switching back to one of them does not
+ * wait for the device to open. When more than the given number of sessions are idle, the least recently used one
+ * is stopped.
+ */
+final class SessionPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(SessionPool.class);
+
+    private final Map<CameraInfo, CameraSession> idleSessions = new LinkedHashMap<>(16, 0.75f, true);
+    private int capacity;
+
+    public SessionPool(int capacity) {
+        this.capacity = Math.max(0, capacity);
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized void setCapacity(int capacity) {
+        this.capacity = Math.max(0, capacity);
+        evict();
+    }
+
+    public synchronized int size() {
+        return idleSessions.size();
+    }
+
+    /**
+     * Takes the idle session of a camera out of the pool and makes it active again.
+     *
+     * @return the session, or <code>null</code> if the camera has no idle session still running
+     */
+    public synchronized CameraSession take(CameraInfo camera) {
+        CameraSession session = idleSessions.remove(camera);
+        if (session == null) {
+            return null;
+        }
+        if (!session.isRunning()) {
+            session.stop();
+            return null;
+        }
+
+        logger.debug("Reusing the session of camera '{}'.", camera);
+        session.setIdle(false);
+        return session;
+    }
+
+    /**
+     * Puts a session in the pool as idle, or stops it if the pool is disabled.
+     */
+    public synchronized void release(CameraSession session) {
+        if (capacity == 0 || !session.isRunning()) {
+            session.stop();
+            return;
+        }
+
+        session.setIdle(true);
+        CameraSession replaced = idleSessions.put(session.getCamera(), session);
+        if (replaced != null && replaced != session) {
+            replaced.stop();
+        }
+        evict();
+    }
+
+    /**
+     * Stops the idle session of a camera, if any.
+     */
+    public synchronized void discard(CameraInfo camera) {
+        CameraSession session = idleSessions.remove(camera);
+        if (session != null) {
+            session.stop();
+        }
+    }
+
+    /**
+     * Stops every idle session, waiting at most the given time for the cameras to be closed (0 to not wait).
+     */
+    public void closeAll(long timeoutMillis) {
+        List<CameraSession> sessions;
+        synchronized (this) {
+            sessions = new ArrayList<>(idleSessions.values());
+            idleSessions.clear();
+        }
+
+        for (CameraSession session : sessions) {
+            session.stop();
+        }
+        if (timeoutMillis <= 0) {
+            return;
+        }
+
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (CameraSession session : sessions) {
+            try {
+                if (!session.awaitStopped(Math.max(1, deadline - System.currentTimeMillis()))) {
+                    logger.warn("Camera '{}' not closed in time.", session.getCamera());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void evict() {
+        Iterator<CameraSession> iterator = idleSessions.values().iterator();
+        while (idleSessions.size() > capacity && iterator.hasNext()) {
+            CameraSession eldest = iterator.next();
+            iterator.remove();
+            logger.debug("Closing the idle session of camera '{}'.", eldest.getCamera());
+            eldest.stop();
+        }
+    }
+}
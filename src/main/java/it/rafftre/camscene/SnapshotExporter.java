@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Saves stills of the cameras as image files, encoding and writing them on a few threads of its own.
+ * <p>
+ * The capture thread only copies the frames taken; when the copies waiting to be written exceed the backlog, the
+ * frames are dropped instead.
+ */
+final class SnapshotExporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotExporter.class);
+
+    private final File directory;
+    private final String format;
+    private final long maxBacklog;
+    private final AtomicLong backlog = new AtomicLong();
+    private final ExecutorService executor;
+
+    /**
+     * @param format the name of an image format known to {@link ImageIO}, such as png or jpg
+     * @param maxBacklog the bytes of the frames that may wait to be written
+     */
+    public SnapshotExporter(File directory, String format, int threads, long maxBacklog) {
+        this.directory = directory;
+        this.format = format.toLowerCase();
+        this.maxBacklog = maxBacklog;
+        if (!ImageIO.getImageWritersBySuffix(this.format).hasNext()) {
+            throw new IllegalArgumentException("Unknown image format '" + format + "'.");
+        }
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread th = new Thread(r, "snapshot-" + count.incrementAndGet());
+                th.setDaemon(true);
+                th.setPriority(Thread.MIN_PRIORITY);
+                return th;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the bytes of the frames waiting to be written.
+     */
+    public long getBacklog() {
+        return backlog.get();
+    }
+
+    /**
+     * Starts taking the given number of consecutive frames of a camera, 1 for a single snapshot.
+     */
+    public Burst startBurst(String cameraName, int frames) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            logger.warn("Cannot create the directory '{}'.", directory);
+        }
+        String prefix = cameraName.replaceAll("[^\\p{Alnum}_.-]+", "_") + "-"
+                + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+        return new Burst(prefix, Math.max(1, frames));
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Waits for the snapshots queued before {@link #shutdown()} to be saved.
+     *
+     * @return whether they have all been saved within the timeout
+     */
+    public boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+        return executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean reserve(long bytes) {
+        long current;
+        do {
+            current = backlog.get();
+            if (current + bytes > maxBacklog) {
+                return false;
+            }
+        } while (!backlog.compareAndSet(current, current + bytes));
+        return true;
+    }
+
+    /**
+     * The frames taken by a snapshot or a burst, with the progress of their writing.
+     */
+    final class Burst {
+
+        private final String prefix;
+        private final int requested;
+        private final AtomicInteger taken = new AtomicInteger();
+        private final AtomicInteger dropped = new AtomicInteger();
+        private final AtomicInteger written = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private volatile boolean cancelled = false;
+
+        private Burst(String prefix, int requested) {
+            this.prefix = prefix;
+            this.requested = requested;
+        }
+
+        /**
+         * Takes a packed RGB frame, if the burst still needs one; it never waits for the frames to be written.
+         *
+         * @return whether the burst needs more frames
+         */
+        public boolean offer(ByteBuffer rgb, int width, int height) {
+            int index = taken.get() + dropped.get();
+            if (cancelled || index >= requested) {
+                return false;
+            }
+
+            int size = width * height * 3;
+            if (!reserve(size)) {
+                dropped.incrementAndGet();
+                return index + 1 < requested;
+            }
+
+            final byte[] copy = new byte[size];
+            Util.getFrameView(rgb, size).get(copy);
+            final File file = new File(directory, requested == 1
+                    ? prefix + "." + format
+                    : String.format("%s-%03d.%s", prefix, index + 1, format));
+            final int w = width;
+            final int h = height;
+            taken.incrementAndGet();
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    write(copy, w, h, file);
+                }
+            });
+
+            return index + 1 < requested;
+        }
+
+        private void write(byte[] rgb, int width, int height, File file) {
+            try {
+                BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                FrameConverter.convert(rgb, ((DataBufferInt) image.getRaster().getDataBuffer()).getData(), width,
+                        height);
+                if (!ImageIO.write(image, format, file)) {
+                    throw new IOException("No writer for format '" + format + "'.");
+                }
+                written.incrementAndGet();
+                logger.debug("Saved '{}'.", file);
+            } catch (IOException | RuntimeException e) {
+                failed.incrementAndGet();
+                logger.warn("Cannot save '" + file + "'.", e);
+            } finally {
+                backlog.addAndGet(-rgb.length);
+            }
+        }
+
+        /**
+         * Stops taking frames; the ones already taken are still written.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public int getRequested() {
+            return requested;
+        }
+
+        public int getTaken() {
+            return taken.get();
+        }
+
+        public int getDropped() {
+            return dropped.get();
+        }
+
+        public int getWritten() {
+            return written.get();
+        }
+
+        public int getFailed() {
+            return failed.get();
+        }
+
+        /**
+         * Whether no frame is still to be taken nor to be written.
+         */
+        public boolean isDone() {
+            return (cancelled || taken.get() + dropped.get() >= requested)
+                    && written.get() + failed.get() >= taken.get();
+        }
+    }
+}
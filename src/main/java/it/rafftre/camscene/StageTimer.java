@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+/**
+ * Collects the durations of a pipeline stage in windows of {@link Util#STATS_WINDOW_NANOS}, publishing the
+ * percentiles of the last complete window. Recording does not allocate; it must be done by a single thread,
+ * while the published values can be read from any thread.
+ */
+final class StageTimer {
+
+    private final IntervalHistogram histogram = new IntervalHistogram();
+    private long windowStart = -1;
+
+    private volatile long count;
+    private volatile double mean;
+    private volatile long p50;
+    private volatile long p99;
+    private volatile long max;
+    private volatile long totalCount;
+    private volatile long totalNanos;
+
+    public void record(long start, long end) {
+        if (windowStart == -1) {
+            windowStart = start;
+        }
+
+        histogram.record(end - start);
+        totalCount++;
+        totalNanos += end - start;
+
+        if (end - windowStart >= Util.STATS_WINDOW_NANOS) {
+            count = histogram.getCount();
+            mean = histogram.getMean();
+            p50 = histogram.getPercentile(50);
+            p99 = histogram.getPercentile(99);
+            max = histogram.getMax();
+
+            histogram.reset();
+            windowStart = end;
+        }
+    }
+
+    /**
+     * Returns the number of durations recorded since the timer was created, for the callers keeping windows of
+     * their own.
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Returns the sum of the durations recorded since the timer was created.
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("p50 %d us, p99 %d us, max %d us", p50 / 1000, p99 / 1000, max / 1000);
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+
+/**
+ * Generates frames of any size: diagonal color bars moving a few pixels per frame, a square of noise moving across
+ * the frame and, in the top left corner, the frame number, the wall clock time and the {@link System#nanoTime()}
+ * of the capture stamped as binary cells, the last one for the {@link LatencyProbe}.
+ * Frames are produced immediately, so the rate is the one of the capture loop.
+ */
+final class SyntheticFrameSource implements FrameSource {
+
+    static final int BAR_COUNT = 8;
+    static final int STEP_PIXELS = 4;
+    static final int NOISE_SIZE = 64;
+    static final int NANO_TIME_LINE = 2;
+
+    private static final int[] BAR_COLORS = {
+            0xffffff, 0xffff00, 0x00ffff, 0x00ff00, 0xff00ff, 0xff0000, 0x0000ff, 0x101010
+    };
+
+    private final String name;
+    private final int fixedWidth;
+    private final int fixedHeight;
+
+    private int width;
+    private int height;
+    private byte[] data;
+    private byte[] patternRow;
+    private long frameCount;
+    private long noiseSeed;
+
+    /**
+     * A source of the given size, or of the requested one when width and height are 0.
+     */
+    public SyntheticFrameSource(String name, int width, int height) {
+        this.name = name;
+        this.fixedWidth = width;
+        this.fixedHeight = height;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void open(int width, int height, int frameRate) {
+        if (data != null) {
+            return;
+        }
+
+        this.width = fixedWidth > 0 ? fixedWidth : width;
+        this.height = fixedHeight > 0 ? fixedHeight : height;
+        this.data = new byte[this.width * this.height * 3];
+        this.frameCount = 0;
+        this.noiseSeed = System.nanoTime() | 1;
+
+        // two periods of bars, so that a row is always a single copy from the pattern
+        int barWidth = Math.max(1, this.width / BAR_COUNT);
+        patternRow = new byte[this.width * 2 * 3];
+        for (int x = 0; x < this.width * 2; x++) {
+            int color = BAR_COLORS[(x / barWidth) % BAR_COUNT];
+            patternRow[x * 3] = (byte) (color >> 16);
+            patternRow[x * 3 + 1] = (byte) (color >> 8);
+            patternRow[x * 3 + 2] = (byte) color;
+        }
+    }
+
+    @Override
+    public void close() {
+        data = null;
+        patternRow = null;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return data != null;
+    }
+
+    @Override
+    public boolean isBlocking() {
+        return false;
+    }
+
+    @Override
+    public boolean grab() {
+        if (data == null) {
+            return false;
+        }
+
+        int rowBytes = width * 3;
+        for (int y = 0; y < height; y++) {
+            int shift = (int) ((frameCount * STEP_PIXELS + y / 2) % width);
+            System.arraycopy(patternRow, shift * 3, data, y * rowBytes, rowBytes);
+        }
+
+        drawNoise();
+
+        FrameStamp.write(data, width, height, 0, frameCount);
+        FrameStamp.write(data, width, height, 1, System.currentTimeMillis());
+        FrameStamp.write(data, width, height, NANO_TIME_LINE, System.nanoTime());
+
+        frameCount++;
+        return true;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public byte[] getData() {
+        return data;
+    }
+
+    @Override
+    public ByteBuffer getBuffer() {
+        return null;
+    }
+
+    @Override
+    public BufferedImage getBufferedImage() {
+        return null;
+    }
+
+    @Override
+    public FrameSource copy() {
+        return new SyntheticFrameSource(name, fixedWidth, fixedHeight);
+    }
+
+    private void drawNoise() {
+        int size = Math.min(NOISE_SIZE, Math.min(width, height));
+        int left = (int) ((frameCount * STEP_PIXELS) % (width - size + 1));
+        int top = (int) ((frameCount * STEP_PIXELS / 2) % (height - size + 1));
+
+        long seed = noiseSeed;
+        for (int y = top; y < top + size; y++) {
+            for (int i = (y * width + left) * 3, end = i + size * 3; i < end; i++) {
+                // xorshift
+                seed ^= seed << 13;
+                seed ^= seed >>> 7;
+                seed ^= seed << 17;
+                data[i] = (byte) seed;
+            }
+        }
+        noiseSeed = seed;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
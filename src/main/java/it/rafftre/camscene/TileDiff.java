@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Tells which tiles of a frame have changed since the previous one, keeping a copy of the tiles as last changed.
+ * A tile has changed when at least one of its pixels differs from the copy by more than a threshold, the sum of
+ * the differences of its three components, so that the noise of the sensor does not count as a change.
+ * <p>
+ * The first frame after the creation or a {@link #reset()} has every tile changed. Used on one thread at a time.
+ */
+final class TileDiff {
+
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int threshold;
+    private final int columns;
+    private final int rows;
+    private final int[] reference;
+    private final byte[] row;
+    private boolean primed = false;
+
+    /**
+     * @param threshold the difference above which a pixel has changed, 0 for any difference
+     */
+    public TileDiff(int width, int height, int tileSize, int threshold) {
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.threshold = threshold;
+        this.columns = (width + tileSize - 1) / tileSize;
+        this.rows = (height + tileSize - 1) / tileSize;
+        this.reference = new int[width * height];
+        this.row = new byte[width * 3];
+    }
+
+    public boolean matches(int width, int height) {
+        return this.width == width && this.height == height;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getTileCount() {
+        return columns * rows;
+    }
+
+    public static int getTileCount(int width, int height, int tileSize) {
+        return ((width + tileSize - 1) / tileSize) * ((height + tileSize - 1) / tileSize);
+    }
+
+    public void reset() {
+        primed = false;
+    }
+
+    /**
+     * Converts a frame of packed RGB bytes like {@link FrameConverter#convert(ByteBuffer, int[], int, int)}, a band
+     * of tiles at a time, comparing every band with the previous frame while it is still in cache.
+     *
+     * @param changedTiles set to whether every tile has changed, row by row
+     * @return the number of changed tiles
+     */
+    public int convert(ByteBuffer rgbData, int[] argbData, boolean[] changedTiles) {
+        ByteBuffer view = Util.getFrameView(rgbData, width * height * 3);
+        int changed = 0;
+
+        for (int ty = 0; ty < rows; ty++) {
+            int fromRow = ty * tileSize;
+            int toRow = Math.min(height, fromRow + tileSize);
+            for (int y = fromRow; y < toRow; y++) {
+                view.get(row);
+                for (int i = 0, j = y * width; i < row.length; i += 3, j++) {
+                    argbData[j] = 0xff000000 | (row[i] & 0xff) << 16 | (row[i + 1] & 0xff) << 8 | (row[i + 2] & 0xff);
+                }
+            }
+            changed += compareBand(argbData, changedTiles, ty, fromRow, toRow);
+        }
+
+        primed = true;
+        return changed;
+    }
+
+    /**
+     * Compares a frame already converted, e.g. while scaling it.
+     *
+     * @param changedTiles set to whether every tile has changed, row by row
+     * @return the number of changed tiles
+     */
+    public int compare(int[] argbData, boolean[] changedTiles) {
+        int changed = 0;
+        for (int ty = 0; ty < rows; ty++) {
+            int fromRow = ty * tileSize;
+            changed += compareBand(argbData, changedTiles, ty, fromRow, Math.min(height, fromRow + tileSize));
+        }
+
+        primed = true;
+        return changed;
+    }
+
+    private int compareBand(int[] argbData, boolean[] changedTiles, int ty, int fromRow, int toRow) {
+        int changed = 0;
+        for (int tx = 0; tx < columns; tx++) {
+            int fromColumn = tx * tileSize;
+            int tileWidth = Math.min(width, fromColumn + tileSize) - fromColumn;
+            boolean tileChanged = !primed || isChanged(argbData, fromRow, toRow, fromColumn, tileWidth);
+            if (tileChanged) {
+                for (int y = fromRow, i = fromRow * width + fromColumn; y < toRow; y++, i += width) {
+                    System.arraycopy(argbData, i, reference, i, tileWidth);
+                }
+                changed++;
+            }
+            changedTiles[ty * columns + tx] = tileChanged;
+        }
+        return changed;
+    }
+
+    private boolean isChanged(int[] argbData, int fromRow, int toRow, int fromColumn, int tileWidth) {
+        for (int y = fromRow; y < toRow; y++) {
+            int from = y * width + fromColumn;
+            int to = from + tileWidth;
+            for (int i = from; i < to; i++) {
+                int pixel = argbData[i];
+                int previous = reference[i];
+                if (pixel != previous
+                        && Math.abs((pixel >> 16 & 0xff) - (previous >> 16 & 0xff))
+                        + Math.abs((pixel >> 8 & 0xff) - (previous >> 8 & 0xff))
+                        + Math.abs((pixel & 0xff) - (previous & 0xff)) > threshold) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -22,20 +22,12 @@
 
 package it.rafftre.camscene;
 
-import com.sleepingdumpling.jvideoinput.VideoFrame;
-import javafx.concurrent.Task;
-import javafx.scene.control.Alert;
-import javafx.scene.control.Label;
-import javafx.scene.control.TextArea;
-import javafx.scene.layout.GridPane;
-import javafx.scene.layout.Priority;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
 import java.awt.image.WritableRaster;
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.nio.ByteBuffer;
 import java.text.MessageFormat;
 import java.util.ResourceBundle;
 import java.util.concurrent.Executors;
@@ -53,9 +45,53 @@ final class Util {
     static final Integer DEFAULT_VIDEO_WIDTH = 640;
     static final Integer DEFAULT_VIDEO_HEIGHT = 480;
     static final Integer DEFAULT_VIDEO_FPS = 25;
+    static final int FRAME_POOL_SIZE = 3;
+    static final long STATS_WINDOW_NANOS = 5 * ONE_SECOND_IN_NANOS;
+    static final String JMX_DOMAIN = "it.rafftre.camscene";
+    static final int REOPEN_AFTER_ERRORS = 25;
+    static final String DEFAULT_HEADLESS_STATS_LOG = "10";
+    static final double GRID_GAP = 4;
+    static final double GRID_LABEL_HEIGHT = 20;
+    static final int RECORDER_SLOTS = 4;
+    static final long RECORDER_POLL_MS = 100;
+    static final int CONVERT_SLOTS = 3;
+    static final long CONVERT_POLL_MS = 100;
+    static final int CONVERT_THREAD_MIN_PROCESSORS = 2;
+    static final int RENDER_TILE_SIZE = 32;
+    static final int TILE_CHANGE_THRESHOLD = 24;
+    static final String DEFAULT_CAPTURE_THREADS = "0";
+    static final long CAPTURE_WHEEL_TICK_NANOS = 1000000;
+    static final int CAPTURE_WHEEL_SIZE = 256;
+    static final long CAPTURE_LATE_NANOS = 2 * CAPTURE_WHEEL_TICK_NANOS;
+    static final long LATENCY_MAX_NANOS = 10 * ONE_SECOND_IN_NANOS;
+    static final double LATENCY_MIN_CELL_PIXELS = 2;
+    static final String DEFAULT_RECORD_SEGMENT_MB = "256";
+    static final String DEFAULT_RECORD_SEGMENT_AGE = "300";
+    static final String DEFAULT_REPLAY_BUDGET_MB = "256";
+    static final long FEED_ALERT_DELAY_NANOS = 2 * ONE_SECOND_IN_NANOS;
+    static final long FEED_CLEAR_DELAY_NANOS = ONE_SECOND_IN_NANOS;
+    static final long SCENE_CUT_SHOW_NANOS = 2 * ONE_SECOND_IN_NANOS;
+    static final int IDLE_FRAME_RATE = 1;
+    static final String DEFAULT_WARM_SESSIONS = "2";
+    static final long SESSION_CLOSE_TIMEOUT_MS = 2000;
+    static final String DEFAULT_DEVICE_SCAN_PERIOD = "5";
+    static final long DEVICE_RESOLVE_TIMEOUT_MS = 15000;
+    static final int NATIVE_BUFFER_PROBE_FRAMES = 100;
+    static final int PREVIEW_MAX_CLIENTS = 16;
+    static final int PREVIEW_CLIENT_QUEUE = 2;
+    static final long PREVIEW_POLL_MS = 500;
+    static final float PREVIEW_JPEG_QUALITY = 0.75f;
+    static final String DEFAULT_SNAPSHOT_DIRECTORY = "snapshots";
+    static final String DEFAULT_SNAPSHOT_FORMAT = "png";
+    static final String DEFAULT_BURST_FRAMES = "25";
+    static final String DEFAULT_SNAPSHOT_BACKLOG_MB = "128";
+    static final int SNAPSHOT_THREADS = 2;
+    static final long SNAPSHOT_SHUTDOWN_TIMEOUT_MS = 5000;
+    static final String FEED_ALERT_STYLE = "-fx-text-fill: red; -fx-font-weight: bold;";
 
     private static ResourceBundle resourceBundle;
     private static ScheduledExecutorService scheduler;
+    private static GraphicsConfiguration graphicsConfiguration;
 
     static {
         scheduler = Executors.newSingleThreadScheduledExecutor();
@@ -79,73 +115,53 @@ final class Util {
         return MessageFormat.format(getResourceBundle().getString(key), params);
     }
 
-    public static ScheduledExecutorService getScheduler() {
-        return scheduler;
+    /**
+     * Returns a view of the first bytes of a frame, which the caller can read from without moving the position of
+     * the frame buffer shared with the other readers.
+     */
+    public static ByteBuffer getFrameView(ByteBuffer frame, int length) {
+        ByteBuffer view = frame.duplicate();
+        view.clear();
+        view.limit(length);
+        return view;
     }
 
-    public static void startDaemonTask(Task<Void> task) {
-        Thread th = new Thread(task);
-        th.setDaemon(true);
-        th.start();
+    public static ScheduledExecutorService getScheduler() {
+        return scheduler;
     }
 
-    public static void showExceptionDialog(Throwable e) {
-        Alert alert = new Alert(Alert.AlertType.ERROR);
-        alert.setTitle("Exception Dialog");
-        alert.setHeaderText("Errore inaspettato");
-        alert.setContentText(e.getLocalizedMessage());
-
-        StringWriter sw = new StringWriter();
-        PrintWriter pw = new PrintWriter(sw);
-        e.printStackTrace(pw);
-        String exceptionText = sw.toString();
-
-        Label label = new Label("The exception stacktrace was:");
-
-        TextArea textArea = new TextArea(exceptionText);
-        textArea.setEditable(false);
-        textArea.setWrapText(true);
-
-        textArea.setMaxWidth(Double.MAX_VALUE);
-        textArea.setMaxHeight(Double.MAX_VALUE);
-        GridPane.setVgrow(textArea, Priority.ALWAYS);
-        GridPane.setHgrow(textArea, Priority.ALWAYS);
-
-        GridPane expContent = new GridPane();
-        expContent.setMaxWidth(Double.MAX_VALUE);
-        expContent.add(label, 0, 0);
-        expContent.add(textArea, 0, 1);
+    public static synchronized GraphicsConfiguration getGraphicsConfiguration() {
+        if (graphicsConfiguration == null) {
+            GraphicsEnvironment ge = GraphicsEnvironment.getLocalGraphicsEnvironment();
+            graphicsConfiguration = ge.getDefaultScreenDevice().getDefaultConfiguration();
+        }
 
-        alert.getDialogPane().setExpandableContent(expContent);
+        return graphicsConfiguration;
+    }
 
-        alert.showAndWait();
+    public static BufferedImage createRenderingBufferedImage(int width, int height) {
+        return getGraphicsConfiguration().createCompatibleImage(width, height, Transparency.TRANSLUCENT);
     }
 
-    public static BufferedImage getRenderingBufferedImage(VideoFrame videoFrame) {
-        GraphicsConfiguration gc =
-                GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
-        BufferedImage img =
-                gc.createCompatibleImage(videoFrame.getWidth(), videoFrame.getHeight(), Transparency.TRANSLUCENT);
-        if (img.getType() == BufferedImage.TYPE_INT_ARGB
+    public static boolean isIntRgbImage(BufferedImage img) {
+        return img.getType() == BufferedImage.TYPE_INT_ARGB
                 || img.getType() == BufferedImage.TYPE_INT_ARGB_PRE
-                || img.getType() == BufferedImage.TYPE_INT_RGB) {
-            WritableRaster raster = img.getRaster();
-            DataBufferInt dataBuffer = (DataBufferInt) raster.getDataBuffer();
-
-            byte[] data = videoFrame.getRawData();
-            addAlphaChannel(data, data.length, dataBuffer.getData());
-            return img; //convert the data ourselves, the performance is much better
-        } else {
-            return videoFrame.getBufferedImage(); //much slower when drawing it on the screen.
-        }
+                || img.getType() == BufferedImage.TYPE_INT_RGB;
     }
 
-    private static void addAlphaChannel(byte[] rgbBytes, int bytesLen, int[] argbInts) {
-        for (int i = 0, j = 0; i < bytesLen; i += 3, j++) {
-            argbInts[j] = ((byte) 0xff) << 24 |        // Alpha
-                    (rgbBytes[i] << 16) & (0xff0000) |        // Red
-                    (rgbBytes[i + 1] << 8) & (0xff00) |        // Green
-                    (rgbBytes[i + 2]) & (0xff);                // Blue
+    public static BufferedImage getRenderingBufferedImage(byte[] rawData, int width, int height, BufferedImage target) {
+        BufferedImage img = target;
+        if (img == null || img.getWidth() != width || img.getHeight() != height) {
+            img = createRenderingBufferedImage(width, height);
         }
+        if (!isIntRgbImage(img)) {
+            return null;
+        }
+
+        WritableRaster raster = img.getRaster();
+        DataBufferInt dataBuffer = (DataBufferInt) raster.getDataBuffer();
+
+        FrameConverter.convert(rawData, dataBuffer.getData(), width, height);
+        return img; //convert the data ourselves, the performance is much better
     }
 }
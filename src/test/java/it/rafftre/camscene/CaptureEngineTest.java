@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CaptureEngineTest {
+
+    private final List<CameraSession> endedSessions = new ArrayList<>();
+    private CaptureEngine engine;
+
+    @Before
+    public void setUp() {
+        engine = new CaptureEngine("test", 2, new CaptureEngine.Listener() {
+
+            @Override
+            public void feedEnded(CameraSession session) {
+                synchronized (endedSessions) {
+                    endedSessions.add(session);
+                }
+                session.end();
+            }
+        });
+        engine.start();
+    }
+
+    @After
+    public void tearDown() {
+        engine.stop();
+    }
+
+    @Test(timeout = 10000)
+    public void testStepsTheFeedsAtTheirRate() throws InterruptedException {
+        // the timer thread idle meanwhile, with nothing in the wheel
+        Thread.sleep(200);
+
+        long start = System.nanoTime();
+        CameraSession[] sessions = new CameraSession[3];
+        for (int i = 0; i < sessions.length; i++) {
+            sessions[i] = add("feed-" + i, 50);
+        }
+        Thread.sleep(1000);
+        double expectedFrames = (System.nanoTime() - start) * 50.0 / Util.ONE_SECOND_IN_NANOS;
+
+        for (CameraSession session : sessions) {
+            long frames = session.getStats().getFrames();
+            assertTrue(frames + " frames, " + expectedFrames + " expected",
+                    frames >= expectedFrames * 0.7 && frames <= expectedFrames + 2);
+        }
+        assertEquals(sessions.length, engine.getFeedCount());
+    }
+
+    @Test(timeout = 10000)
+    public void testStepsAWokenFeedBeforeItsDeadline() throws InterruptedException {
+        long interval = TimeUnit.MILLISECONDS.toNanos(500);
+        long start = System.nanoTime();
+        CameraSession session = add("feed", 2);
+        sleepUntil(start + interval / 4);
+        assertEquals(1, session.getStats().getFrames());
+
+        session.getPacer().wake();
+        sleepUntil(start + interval / 2);
+        assertEquals(2, session.getStats().getFrames());
+
+        // the first deadline of the feed is stale, the next one comes an interval later
+        sleepUntil(start + interval * 3 / 2);
+        assertEquals(2, session.getStats().getFrames());
+        sleepUntil(start + interval * 5 / 2);
+        assertEquals(3, session.getStats().getFrames());
+    }
+
+    @Test(timeout = 10000)
+    public void testEndsAStoppedFeedRightAway() throws InterruptedException {
+        CameraSession session = add("feed", 1);
+        Thread.sleep(100);
+
+        long start = System.nanoTime();
+        session.stop();
+        assertTrue(session.awaitStopped(500));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        synchronized (endedSessions) {
+            assertEquals(1, endedSessions.size());
+        }
+        assertEquals(0, engine.getFeedCount());
+    }
+
+    @Test(timeout = 10000)
+    public void testHandsBackTheFeedsWhenStopped() throws InterruptedException {
+        CameraSession[] sessions = new CameraSession[3];
+        for (int i = 0; i < sessions.length; i++) {
+            sessions[i] = add("feed-" + i, 1);
+        }
+        Thread.sleep(100);
+
+        // every feed is waiting for its deadline
+        engine.stop();
+        synchronized (endedSessions) {
+            assertEquals(sessions.length, endedSessions.size());
+        }
+        assertEquals(0, engine.getFeedCount());
+        for (CameraSession session : sessions) {
+            assertEquals(CameraSession.State.CLOSED, session.getState());
+            assertEquals(1, session.getStats().getFrames());
+        }
+    }
+
+    private CameraSession add(String name, int frameRate) {
+        CameraInfo camera = new CameraInfo(new SyntheticFrameSource(name, 32, 24));
+        camera.setFrameRate(frameRate);
+        CameraSession session = new CameraSession(camera);
+        session.setDisplayed(false);
+        assertTrue(session.begin());
+        engine.add(session);
+        return session;
+    }
+
+    private static void sleepUntil(long time) throws InterruptedException {
+        long delay = time - System.nanoTime();
+        if (delay > 0) {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        }
+    }
+}
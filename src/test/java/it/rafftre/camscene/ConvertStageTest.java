@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ConvertStageTest {
+
+    private static final int WIDTH = 16;
+    private static final int HEIGHT = 12;
+
+    private CameraInfo camera;
+    private FrameMailbox mailbox;
+    private ReplayBuffer replay;
+
+    @Before
+    public void setUp() {
+        camera = new CameraInfo(new SyntheticFrameSource("cam", WIDTH, HEIGHT));
+        mailbox = new FrameMailbox();
+        replay = new ReplayBuffer(100L * WIDTH * HEIGHT * 3);
+        camera.setReplayBuffer(replay);
+    }
+
+    @Test
+    public void testConvertsInlineOnTheCaptureThread() {
+        ConvertStage stage = new ConvertStage(camera, mailbox, false);
+        stage.start();
+        assertEquals(0, stage.getCapacity());
+
+        RawFrame frame = stage.acquire();
+        assertSame(frame, stage.acquire());
+        byte[] data = fill(frame, 0, true);
+        stage.submit(frame);
+        assertNull(frame.getData());
+
+        Frame converted = mailbox.take();
+        assertNotNull(converted);
+        assertArrayEquals(data, converted.getRgbData());
+        assertEquals(0, replay.getNewest());
+
+        // handed to the taps only
+        fill(stage.acquire(), 1, false);
+        stage.submit(frame);
+        assertNull(mailbox.take());
+        assertEquals(1, replay.getNewest());
+        stage.close();
+    }
+
+    @Test(timeout = 10000)
+    public void testDropsTheFramesFindingNoSlot() {
+        ConvertStage stage = new ConvertStage(camera, mailbox, true);
+        assertEquals(Util.CONVERT_SLOTS, stage.getCapacity());
+
+        // not started: the slots are filled and not converted
+        RawFrame[] frames = new RawFrame[Util.CONVERT_SLOTS];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = stage.acquire();
+            assertNotNull(frames[i]);
+            fill(frames[i], i, true);
+            stage.submit(frames[i]);
+        }
+        assertNull(stage.acquire());
+        assertEquals(1, stage.getCaptureStalls());
+        assertEquals(Util.CONVERT_SLOTS, stage.getOccupancy());
+
+        stage.start();
+        stage.close();
+        assertEquals(0, stage.getOccupancy());
+        assertEquals(Util.CONVERT_SLOTS - 1, replay.getNewest());
+        assertNotNull(mailbox.take());
+    }
+
+    @Test(timeout = 10000)
+    public void testTapsEveryFrameInOrderOnItsThread() {
+        ConvertStage stage = new ConvertStage(camera, mailbox, true);
+        stage.start();
+        int submitted = 0;
+        for (int i = 0; i < 50; i++) {
+            RawFrame frame;
+            while ((frame = stage.acquire()) == null) {
+                Thread.yield();
+            }
+            fill(frame, i, i % 2 == 0);
+            stage.submit(frame);
+            submitted++;
+        }
+        stage.close();
+
+        assertEquals(submitted - 1, replay.getNewest());
+        for (long sequence = replay.getOldest(); sequence <= replay.getNewest(); sequence++) {
+            assertEquals(1000 + sequence, replay.getTimestamp(sequence));
+        }
+
+        // the last frame converted, every other one being only tapped
+        Frame converted = mailbox.take();
+        assertNotNull(converted);
+        assertEquals(1000 + 48, converted.getTimestamp());
+    }
+
+    /**
+     * Sets a frame of packed RGB bytes in a slot, as the capture thread does, copying it for the thread of the stage.
+     */
+    private static byte[] fill(RawFrame frame, int number, boolean converted) {
+        byte[] data = new byte[WIDTH * HEIGHT * 3];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (number + i);
+        }
+        frame.setData(ByteBuffer.wrap(data), WIDTH, HEIGHT, true);
+        frame.setTimestamp(1000 + number);
+        frame.setConverted(converted);
+        return data;
+    }
+}
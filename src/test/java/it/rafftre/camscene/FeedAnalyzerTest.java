@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class FeedAnalyzerTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final long FRAME_NANOS = 40000000L;
+
+    private long time = 1;
+    private int frameNumber;
+
+    @Test
+    public void testNoisyFeedIsNormal() {
+        FeedAnalyzer analyzer = new FeedAnalyzer("cam");
+        feed(analyzer, 200, Scene.NOISE);
+        assertEquals(FeedAnalyzer.Alert.NONE, analyzer.getAlert());
+        assertEquals(0, analyzer.getSceneCuts());
+    }
+
+    @Test
+    public void testBlackFeed() {
+        assertRaisedAfterTheDelay(Scene.BLACK, FeedAnalyzer.Alert.BLACK);
+    }
+
+    @Test
+    public void testUniformFeed() {
+        assertRaisedAfterTheDelay(Scene.GRAY, FeedAnalyzer.Alert.UNIFORM);
+    }
+
+    @Test
+    public void testFrozenFeed() {
+        assertRaisedAfterTheDelay(Scene.STILL, FeedAnalyzer.Alert.FROZEN);
+    }
+
+    @Test
+    public void testAnAlertIsClearedAfterTheDelay() {
+        FeedAnalyzer analyzer = new FeedAnalyzer("cam");
+        feed(analyzer, framesIn(Util.FEED_ALERT_DELAY_NANOS) + 2, Scene.BLACK);
+        assertEquals(FeedAnalyzer.Alert.BLACK, analyzer.getAlert());
+
+        // a single normal frame does not clear it
+        feed(analyzer, 1, Scene.NOISE);
+        feed(analyzer, 1, Scene.BLACK);
+        assertEquals(FeedAnalyzer.Alert.BLACK, analyzer.getAlert());
+
+        feed(analyzer, framesIn(Util.FEED_CLEAR_DELAY_NANOS) - 1, Scene.NOISE);
+        assertEquals(FeedAnalyzer.Alert.BLACK, analyzer.getAlert());
+        feed(analyzer, 2, Scene.NOISE);
+        assertEquals(FeedAnalyzer.Alert.NONE, analyzer.getAlert());
+    }
+
+    @Test
+    public void testSceneCutsAreCountedOnce() {
+        FeedAnalyzer analyzer = new FeedAnalyzer("cam");
+        feed(analyzer, 10, Scene.STILL);
+        assertEquals(0, analyzer.getSceneCuts());
+
+        feed(analyzer, 1, Scene.INVERTED);
+        assertEquals(1, analyzer.getSceneCuts());
+        assertEquals(time - FRAME_NANOS, analyzer.getLastSceneCutTime());
+        feed(analyzer, 10, Scene.INVERTED);
+        assertEquals(1, analyzer.getSceneCuts());
+
+        feed(analyzer, 1, Scene.STILL);
+        assertEquals(2, analyzer.getSceneCuts());
+    }
+
+    @Test
+    public void testSmallFramesAreNotAnalyzed() {
+        FeedAnalyzer analyzer = new FeedAnalyzer("cam");
+        ByteBuffer frame = ByteBuffer.allocate(FeedAnalyzer.GRID_COLUMNS * 10 * 3);
+        for (int i = 0; i < framesIn(Util.FEED_ALERT_DELAY_NANOS) * 2; i++) {
+            analyzer.analyze(frame, FeedAnalyzer.GRID_COLUMNS, 10, time);
+            time += FRAME_NANOS;
+        }
+        assertEquals(FeedAnalyzer.Alert.NONE, analyzer.getAlert());
+    }
+
+    private void assertRaisedAfterTheDelay(Scene scene, FeedAnalyzer.Alert alert) {
+        FeedAnalyzer analyzer = new FeedAnalyzer("cam");
+        feed(analyzer, 10, Scene.NOISE);
+        feed(analyzer, framesIn(Util.FEED_ALERT_DELAY_NANOS), scene);
+        assertEquals(FeedAnalyzer.Alert.NONE, analyzer.getAlert());
+        feed(analyzer, 2, scene);
+        assertEquals(alert, analyzer.getAlert());
+    }
+
+    private static int framesIn(long nanos) {
+        return (int) (nanos / FRAME_NANOS);
+    }
+
+    private void feed(FeedAnalyzer analyzer, int frames, Scene scene) {
+        for (int i = 0; i < frames; i++) {
+            analyzer.analyze(ByteBuffer.wrap(scene.render(frameNumber++)), WIDTH, HEIGHT, time);
+            time += FRAME_NANOS;
+        }
+    }
+
+    private enum Scene {
+        BLACK, GRAY, NOISE, STILL, INVERTED;
+
+        byte[] render(int frameNumber) {
+            byte[] rgb = new byte[WIDTH * HEIGHT * 3];
+            switch (this) {
+                case GRAY:
+                    Arrays.fill(rgb, (byte) 128);
+                    break;
+                case NOISE:
+                    new Random(frameNumber).nextBytes(rgb);
+                    break;
+                case STILL:
+                case INVERTED:
+                    // a diagonal gradient, or its negative
+                    for (int y = 0; y < HEIGHT; y++) {
+                        for (int x = 0; x < WIDTH; x++) {
+                            int level = (x + y) * 255 / (WIDTH + HEIGHT);
+                            Arrays.fill(rgb, (y * WIDTH + x) * 3, (y * WIDTH + x) * 3 + 3,
+                                    (byte) (this == STILL ? level : 255 - level));
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+            return rgb;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameConverterTest {
+
+    private static final int UNTOUCHED = 0x12345678;
+
+    @Test
+    public void testConvertRowsIsAddAlphaChannel() {
+        int height = 7;
+        int[][] rowRanges = {{0, height}, {0, 1}, {1, height - 1}, {3, 4}, {height - 1, height}, {2, 2}};
+        for (int width : new int[] {1, 2, 3, 4, 5, 7, 8, 12, 97, 640, 641}) {
+            for (int[] range : rowRanges) {
+                assertConvertedRows(width, height, range[0], range[1]);
+            }
+        }
+    }
+
+    @Test
+    public void testConvertIsAddAlphaChannel() {
+        for (int[] size : new int[][] {{640, 480}, {641, 479}, {1920, 1080}}) {
+            int width = size[0];
+            int height = size[1];
+            byte[] rgb = randomFrame(width, height);
+            int[] expected = new int[width * height];
+            FrameConverter.addAlphaChannel(rgb, rgb.length, expected);
+
+            int[] argb = new int[expected.length];
+            FrameConverter.convert(rgb, argb, width, height);
+            assertArrayEquals("array, " + width + "x" + height, expected, argb);
+
+            argb = new int[expected.length];
+            FrameConverter.convert(toDirect(rgb, ByteOrder.BIG_ENDIAN), argb, width, height);
+            assertArrayEquals("buffer, " + width + "x" + height, expected, argb);
+        }
+    }
+
+    @Test
+    public void testScaleToHalfIsABoxFilter() {
+        assertScaledAsBoxFilter(640, 480, 320, 240);
+        assertScaledAsBoxFilter(64, 36, 32, 18);
+    }
+
+    @Test
+    public void testScaleAboveHalfIsABoxFilter() {
+        // every target pixel covers one or two source pixels per side
+        assertScaledAsBoxFilter(640, 480, 427, 321);
+        assertScaledAsBoxFilter(1920, 1080, 1280, 720);
+        assertScaledAsBoxFilter(97, 53, 61, 40);
+        assertScaledAsBoxFilter(639, 479, 320, 240);
+    }
+
+    @Test
+    public void testScaleBelowHalfStaysInTheBox() {
+        int width = 640;
+        int height = 480;
+        int targetWidth = 250;
+        int targetHeight = 170;
+        byte[] rgb = randomFrame(width, height);
+        FrameConverter.ScaleMap map = new FrameConverter.ScaleMap(width, height, targetWidth, targetHeight);
+
+        byte[] scaled = new byte[targetWidth * targetHeight * 3];
+        FrameConverter.scale(rgb, map, scaled);
+        for (int ty = 0; ty < targetHeight; ty++) {
+            for (int tx = 0; tx < targetWidth; tx++) {
+                for (int c = 0; c < 3; c++) {
+                    int min = 255;
+                    int max = 0;
+                    for (int y = ty * height / targetHeight; y < (ty + 1) * height / targetHeight; y++) {
+                        for (int x = tx * width / targetWidth; x < (tx + 1) * width / targetWidth; x++) {
+                            int value = rgb[(y * width + x) * 3 + c] & 0xff;
+                            min = Math.min(min, value);
+                            max = Math.max(max, value);
+                        }
+                    }
+                    int value = scaled[(ty * targetWidth + tx) * 3 + c] & 0xff;
+                    assertTrue(value + " not in " + min + ".." + max, value >= min && value <= max);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the conversion of some rows, from an array and from buffers read as bytes or as ints, against the
+     * conversion of the whole frame a pixel at a time; the other rows are not to be written.
+     */
+    private static void assertConvertedRows(int width, int height, int fromRow, int toRow) {
+        byte[] rgb = randomFrame(width, height);
+        int[] all = new int[width * height];
+        FrameConverter.addAlphaChannel(rgb, rgb.length, all);
+        int[] expected = new int[all.length];
+        Arrays.fill(expected, UNTOUCHED);
+        System.arraycopy(all, fromRow * width, expected, fromRow * width, (toRow - fromRow) * width);
+        String rows = width + "x" + height + " rows " + fromRow + ".." + toRow;
+
+        int[] argb = new int[expected.length];
+        Arrays.fill(argb, UNTOUCHED);
+        FrameConverter.convertRows(rgb, argb, width, fromRow, toRow);
+        assertArrayEquals("array, " + rows, expected, argb);
+
+        // the byte order and the position of the buffer do not matter
+        for (ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            ByteBuffer direct = toDirect(rgb, order);
+            direct.position(rgb.length / 2);
+            argb = new int[expected.length];
+            Arrays.fill(argb, UNTOUCHED);
+            FrameConverter.convertRows(direct, argb, width, fromRow, toRow);
+            assertArrayEquals("buffer " + order + ", " + rows, expected, argb);
+            assertEquals(rgb.length / 2, direct.position());
+        }
+    }
+
+    /**
+     * Checks the four scaling paths, from an array or a direct buffer to packed RGB or ARGB, against a plain
+     * average of the source pixels covered by every target pixel.
+     */
+    private static void assertScaledAsBoxFilter(int width, int height, int targetWidth, int targetHeight) {
+        byte[] rgb = randomFrame(width, height);
+        ByteBuffer direct = ByteBuffer.allocateDirect(rgb.length);
+        direct.put(rgb).clear();
+        FrameConverter.ScaleMap map = new FrameConverter.ScaleMap(width, height, targetWidth, targetHeight);
+        byte[] expected = boxFilter(rgb, width, height, targetWidth, targetHeight);
+        String size = width + "x" + height + " to " + targetWidth + "x" + targetHeight;
+
+        byte[] scaled = new byte[expected.length];
+        FrameConverter.scale(rgb, map, scaled);
+        assertArrayEquals("array to RGB, " + size, expected, scaled);
+
+        scaled = new byte[expected.length];
+        FrameConverter.scale(direct, map, scaled);
+        assertArrayEquals("buffer to RGB, " + size, expected, scaled);
+
+        int[] expectedArgb = new int[targetWidth * targetHeight];
+        FrameConverter.convert(expected, expectedArgb, targetWidth, targetHeight);
+
+        int[] argb = new int[expectedArgb.length];
+        FrameConverter.scale(rgb, map, argb);
+        assertArrayEquals("array to ARGB, " + size, expectedArgb, argb);
+
+        argb = new int[expectedArgb.length];
+        FrameConverter.scale(direct, map, argb);
+        assertArrayEquals("buffer to ARGB, " + size, expectedArgb, argb);
+    }
+
+    /**
+     * The average of the source pixels whose index falls in the span of every target pixel, rounded.
+     */
+    private static byte[] boxFilter(byte[] rgb, int width, int height, int targetWidth, int targetHeight) {
+        byte[] scaled = new byte[targetWidth * targetHeight * 3];
+        for (int ty = 0; ty < targetHeight; ty++) {
+            int fromY = ty * height / targetHeight;
+            int toY = (ty + 1) * height / targetHeight;
+            for (int tx = 0; tx < targetWidth; tx++) {
+                int fromX = tx * width / targetWidth;
+                int toX = (tx + 1) * width / targetWidth;
+                int count = (toY - fromY) * (toX - fromX);
+                for (int c = 0; c < 3; c++) {
+                    int sum = 0;
+                    for (int y = fromY; y < toY; y++) {
+                        for (int x = fromX; x < toX; x++) {
+                            sum += rgb[(y * width + x) * 3 + c] & 0xff;
+                        }
+                    }
+                    scaled[(ty * targetWidth + tx) * 3 + c] = (byte) ((sum + count / 2) / count);
+                }
+            }
+        }
+        return scaled;
+    }
+
+    private static ByteBuffer toDirect(byte[] rgb, ByteOrder order) {
+        ByteBuffer direct = ByteBuffer.allocateDirect(rgb.length).order(order);
+        direct.put(rgb).clear();
+        return direct;
+    }
+
+    private static byte[] randomFrame(int width, int height) {
+        byte[] rgb = new byte[width * height * 3];
+        new Random(width * 31 + height).nextBytes(rgb);
+        return rgb;
+    }
+}
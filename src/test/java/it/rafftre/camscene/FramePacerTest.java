@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FramePacerTest {
+
+    @Test
+    public void testLowersTheRateToTheDeliveredOne() {
+        FramePacer pacer = new FramePacer(30, true);
+        for (int i = 0; i < FramePacer.ADAPT_WINDOWS - 1; i++) {
+            pacer.adapt(20);
+        }
+        assertEquals(30, pacer.getFrameRate());
+        pacer.adapt(20);
+        assertEquals(20, pacer.getFrameRate());
+    }
+
+    @Test
+    public void testRaisesTheRateWhileTheDeviceKeepsUp() {
+        FramePacer pacer = new FramePacer(30, true);
+        adapt(pacer, 20, FramePacer.ADAPT_WINDOWS);
+        assertEquals(20, pacer.getFrameRate());
+
+        // the device is no longer capped: back to the requested rate, no further
+        for (int i = 0; i < 1000; i++) {
+            pacer.adapt(pacer.getFrameRate());
+        }
+        assertEquals(30, pacer.getFrameRate());
+    }
+
+    @Test
+    public void testSettlesOnACappedDevice() {
+        for (double cap : new double[] {12, 17.5, 20, 29}) {
+            FramePacer pacer = new FramePacer(30, true);
+            adapt(pacer, cap, 100);
+            int settledRate = pacer.getFrameRate();
+            assertTrue(cap + " fps settled at " + settledRate, settledRate >= cap && settledRate <= 30);
+
+            adapt(pacer, cap, 1000);
+            assertEquals(cap + " fps", settledRate, pacer.getFrameRate());
+        }
+    }
+
+    @Test
+    public void testBacksOffBeforeProbingAFailedRate() {
+        // a device that keeps up to 20 fps, and falls to 17 above
+        FramePacer pacer = new FramePacer(30, true);
+        int maxProbeWindows = FramePacer.ADAPT_WINDOWS << FramePacer.MAX_PROBE_BACKOFF;
+        int failures = 0;
+        int lastFailure = 0;
+        for (int window = 0; window < 20 * maxProbeWindows; window++) {
+            int rate = pacer.getFrameRate();
+            pacer.adapt(rate <= 20 ? rate : 17);
+            if (pacer.getFrameRate() < rate) {
+                failures++;
+                if (failures > FramePacer.MAX_PROBE_BACKOFF + 1) {
+                    assertTrue("probed again after " + (window - lastFailure), window - lastFailure >= maxProbeWindows);
+                }
+                lastFailure = window;
+            }
+        }
+        assertTrue(failures + " failures", failures <= 20 + FramePacer.MAX_PROBE_BACKOFF + 1);
+    }
+
+    @Test
+    public void testANewRequestedRateForgetsTheFailures() {
+        FramePacer pacer = new FramePacer(30, true);
+        adapt(pacer, 20, 200);
+        pacer.setRequestedFrameRate(25);
+        assertEquals(25, pacer.getFrameRate());
+        adapt(pacer, 20, FramePacer.ADAPT_WINDOWS);
+        assertEquals(20, pacer.getFrameRate());
+        adapt(pacer, 25, 200);
+        assertEquals(25, pacer.getFrameRate());
+    }
+
+    @Test
+    public void testSkipsTheMissedDeadlines() throws InterruptedException {
+        FramePacer pacer = new FramePacer(1000, false);
+        long interval = TimeUnit.MILLISECONDS.toNanos(1);
+        pacer.start();
+        Thread.sleep(20);
+
+        long now = System.nanoTime();
+        long deadline = pacer.nextDeadline();
+        assertTrue("late by " + (now - deadline), deadline > now - interval && deadline <= System.nanoTime());
+        assertTrue(pacer.getSkippedFrames() + " skipped", pacer.getSkippedFrames() >= 18);
+        assertEquals(deadline + interval, pacer.nextDeadline());
+    }
+
+    @Test
+    public void testCatchesUpWhenLateByLessThanAnInterval() throws InterruptedException {
+        FramePacer pacer = new FramePacer(5, false);
+        pacer.start();
+        Thread.sleep(300);
+
+        // 100 ms late on a 200 ms interval: grabbed at once, the next one on time
+        long start = System.nanoTime();
+        pacer.awaitNextFrame();
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 50);
+        assertEquals(0, pacer.getSkippedFrames());
+
+        start = System.nanoTime();
+        pacer.awaitNextFrame();
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("waited " + waited + " ms", waited >= 50 && waited < 200);
+    }
+
+    @Test(timeout = 10000)
+    public void testWakeEndsTheWait() throws InterruptedException {
+        final FramePacer pacer = new FramePacer(1, false);
+        pacer.start();
+        Thread waker = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                pacer.wake();
+            }
+        });
+        waker.start();
+
+        long start = System.nanoTime();
+        pacer.awaitNextFrame();
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 900);
+        waker.join();
+    }
+
+    /**
+     * Closes the given number of windows of a device delivering at most the given rate.
+     */
+    private static void adapt(FramePacer pacer, double cap, int windows) {
+        for (int i = 0; i < windows; i++) {
+            pacer.adapt(Math.min(cap, pacer.getFrameRate()));
+        }
+    }
+}
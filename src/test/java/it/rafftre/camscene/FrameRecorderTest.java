@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class FrameRecorderTest {
+
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 6;
+    private static final int FRAME_SIZE = RawFrameFormat.getFrameSize(WIDTH, HEIGHT);
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("recorder").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                assertTrue(file.delete());
+            }
+        }
+        assertTrue(directory.delete());
+    }
+
+    @Test(timeout = 10000)
+    public void testRollsOverWhenFullAndTruncates() throws IOException, InterruptedException {
+        FrameRecorder recorder = new FrameRecorder(directory, "cam", RawFrameFormat.HEADER_SIZE + 3 * FRAME_SIZE, 0);
+        recorder.start();
+        byte[][] frames = new byte[7][];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = record(recorder, WIDTH, HEIGHT, 1000 + i);
+        }
+        recorder.close();
+
+        assertEquals(7, recorder.getRecordedFrames());
+        assertEquals(0, recorder.getDroppedFrames());
+        assertSegment("cam-1000", WIDTH, HEIGHT, 1000, Arrays.copyOfRange(frames, 0, 3));
+        assertSegment("cam-1003", WIDTH, HEIGHT, 1003, Arrays.copyOfRange(frames, 3, 6));
+        assertSegment("cam-1006", WIDTH, HEIGHT, 1006, Arrays.copyOfRange(frames, 6, 7));
+        assertEquals(6, directory.list().length);
+    }
+
+    @Test(timeout = 10000)
+    public void testRollsOverWhenTheSizeChanges() throws IOException, InterruptedException {
+        FrameRecorder recorder = new FrameRecorder(directory, "cam", 1 << 20, 0);
+        recorder.start();
+        byte[] first = record(recorder, WIDTH, HEIGHT, 1000);
+        byte[] second = record(recorder, 4, 4, 1001);
+        recorder.close();
+
+        assertSegment("cam-1000", WIDTH, HEIGHT, 1000, first);
+        assertSegment("cam-1001", 4, 4, 1001, second);
+    }
+
+    @Test(timeout = 10000)
+    public void testRollsOverWhenTooOld() throws IOException, InterruptedException {
+        FrameRecorder recorder = new FrameRecorder(directory, "cam", 1 << 20, 100);
+        recorder.start();
+        byte[] first = record(recorder, WIDTH, HEIGHT, 1000);
+        byte[] second = record(recorder, WIDTH, HEIGHT, 1099);
+        byte[] third = record(recorder, WIDTH, HEIGHT, 1100);
+        recorder.close();
+
+        assertSegment("cam-1000", WIDTH, HEIGHT, 1000, first, second);
+        assertSegment("cam-1100", WIDTH, HEIGHT, 1100, third);
+    }
+
+    @Test(timeout = 10000)
+    public void testTheIndexFindsTheFrames() throws IOException, InterruptedException {
+        FrameRecorder recorder = new FrameRecorder(directory, "cam", RawFrameFormat.HEADER_SIZE + 4 * FRAME_SIZE, 0);
+        recorder.start();
+        for (int i = 0; i < 6; i++) {
+            record(recorder, WIDTH, HEIGHT, 1000 + i * 10);
+        }
+        recorder.close();
+
+        File segment = RecordingIndex.findSegment(directory, "cam", 1035);
+        assertNotNull(segment);
+        assertEquals("cam-1000.raw", segment.getName());
+        assertEquals(3, RecordingIndex.findFrame(segment, 1035));
+        assertEquals(0, RecordingIndex.findFrame(segment, 999));
+
+        segment = RecordingIndex.findSegment(directory, "cam", 1100);
+        assertEquals("cam-1040.raw", segment.getName());
+        assertEquals(1, RecordingIndex.findFrame(segment, 1100));
+    }
+
+    /**
+     * Records a random frame and waits for it to be written, so that no frame is dropped.
+     */
+    private static byte[] record(FrameRecorder recorder, int width, int height, long timestamp)
+            throws InterruptedException {
+        byte[] frame = new byte[width * height * 3];
+        new Random(timestamp).nextBytes(frame);
+        long recorded = recorder.getRecordedFrames();
+        recorder.record(ByteBuffer.wrap(frame), width, height, 25, timestamp);
+        while (recorder.getRecordedFrames() == recorded) {
+            Thread.sleep(1);
+        }
+        return frame;
+    }
+
+    /**
+     * Checks that a closed segment and its index hold the given frames and nothing after them.
+     */
+    private void assertSegment(String name, int width, int height, long firstTimestamp, byte[]... frames)
+            throws IOException {
+        File segmentFile = new File(directory, name + RecordingIndex.SEGMENT_EXTENSION);
+        File indexFile = RecordingIndex.getIndexFile(segmentFile);
+        int frameSize = RawFrameFormat.getFrameSize(width, height);
+        assertEquals(name, RawFrameFormat.HEADER_SIZE + frames.length * frameSize, segmentFile.length());
+        assertEquals(name + " index", frames.length * 8, indexFile.length());
+
+        ByteBuffer segment = ByteBuffer.wrap(Files.readAllBytes(segmentFile.toPath()));
+        ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(indexFile.toPath()));
+        assertArrayEquals(new int[] {width, height, 25}, RawFrameFormat.readHeader(segment));
+        for (int i = 0; i < frames.length; i++) {
+            long timestamp = segment.getLong();
+            assertEquals(index.getLong(), timestamp);
+            if (i == 0) {
+                assertEquals(firstTimestamp, timestamp);
+            }
+            byte[] data = new byte[frames[i].length];
+            segment.get(data);
+            assertArrayEquals(name + " frame " + i, frames[i], data);
+        }
+    }
+}
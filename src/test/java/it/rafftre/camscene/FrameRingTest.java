@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FrameRingTest {
+
+    private static final int COUNT = 200000;
+
+    @Test
+    public void testCapacityIsRoundedUp() {
+        assertEquals(4, new FrameRing<Integer>(3).getCapacity());
+        assertEquals(4, new FrameRing<Integer>(4).getCapacity());
+        assertEquals(1, new FrameRing<Integer>(1).getCapacity());
+    }
+
+    @Test
+    public void testCountsTheStalls() {
+        FrameRing<Integer> ring = new FrameRing<>(2);
+        assertNull(ring.poll());
+        assertEquals(1, ring.getEmptyPolls());
+
+        assertTrue(ring.offer(1));
+        assertTrue(ring.offer(2));
+        assertFalse(ring.offer(3));
+        assertEquals(1, ring.getFullOffers());
+        assertEquals(2, ring.size());
+
+        assertEquals(Integer.valueOf(1), ring.poll());
+        assertEquals(Integer.valueOf(2), ring.take(0));
+        assertEquals(0, ring.getWaits());
+
+        assertNull(ring.take(TimeUnit.MILLISECONDS.toNanos(1)));
+        assertEquals(1, ring.getWaits());
+        assertEquals(1, ring.getEmptyPolls());
+    }
+
+    @Test(timeout = 60000)
+    public void testHandsEveryElementInOrder() throws InterruptedException {
+        final FrameRing<Integer> ring = new FrameRing<>(4);
+        final AtomicLong fullOffers = new AtomicLong();
+        Thread producer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                for (int i = 0; i < COUNT; i++) {
+                    while (!ring.offer(i)) {
+                        fullOffers.incrementAndGet();
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        producer.start();
+
+        long emptyPolls = 0;
+        long takes = 0;
+        int expected = 0;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(50);
+        while (expected < COUNT && System.nanoTime() < deadline) {
+            Integer element = ring.poll();
+            if (element == null) {
+                emptyPolls++;
+                takes++;
+                element = ring.take(TimeUnit.MILLISECONDS.toNanos(100));
+                if (element == null) {
+                    continue;
+                }
+            }
+
+            // in order, so none lost nor duplicated
+            assertEquals(expected, element.intValue());
+            expected++;
+        }
+        producer.join();
+
+        assertEquals(COUNT, expected);
+        assertNull(ring.poll());
+        assertEquals(0, ring.size());
+        assertEquals(fullOffers.get(), ring.getFullOffers());
+        // the poll after the last element counts too
+        assertEquals(emptyPolls + 1, ring.getEmptyPolls());
+        // a take waits only if the ring is still empty
+        assertTrue(ring.getWaits() <= takes);
+    }
+
+    @Test(timeout = 10000)
+    public void testWakeEndsTheWait() throws InterruptedException {
+        final FrameRing<Integer> ring = new FrameRing<>(2);
+        final long[] waited = new long[1];
+        Thread consumer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                ring.take(TimeUnit.SECONDS.toNanos(30));
+                waited[0] = System.nanoTime() - start;
+            }
+        });
+        consumer.start();
+
+        // the consumer may not have parked yet
+        while (consumer.isAlive()) {
+            ring.wake();
+            consumer.join(10);
+        }
+
+        assertTrue(waited[0] < TimeUnit.SECONDS.toNanos(5));
+    }
+}
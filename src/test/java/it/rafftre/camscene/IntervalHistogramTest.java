@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IntervalHistogramTest {
+
+    @Test
+    public void testSmallValuesHaveABucketEach() {
+        for (int value = 0; value < 8; value++) {
+            assertEquals(value, IntervalHistogram.bucketOf(value));
+            assertEquals(value, IntervalHistogram.upperBoundOf(value));
+        }
+    }
+
+    @Test
+    public void testBucketsAreContiguous() {
+        for (int bucket = 0; bucket < IntervalHistogram.BUCKETS - 1; bucket++) {
+            long upperBound = IntervalHistogram.upperBoundOf(bucket);
+            assertEquals("upper bound " + upperBound, bucket, IntervalHistogram.bucketOf(upperBound));
+            assertEquals("after " + upperBound, bucket + 1, IntervalHistogram.bucketOf(upperBound + 1));
+        }
+        assertEquals(IntervalHistogram.BUCKETS - 1, IntervalHistogram.bucketOf(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, IntervalHistogram.upperBoundOf(IntervalHistogram.BUCKETS - 1));
+    }
+
+    @Test
+    public void testBucketsAreAnEighthOfAPowerOfTwo() {
+        for (int bucket = 8; bucket < IntervalHistogram.BUCKETS; bucket++) {
+            long lowerBound = IntervalHistogram.upperBoundOf(bucket - 1) + 1;
+            long width = IntervalHistogram.upperBoundOf(bucket) - lowerBound + 1;
+            assertEquals("width of bucket " + bucket, Long.highestOneBit(lowerBound) / 8, width);
+        }
+    }
+
+    @Test
+    public void testPercentilesAreUpperBounds() {
+        IntervalHistogram histogram = new IntervalHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(500500, histogram.getMean(), 0.001);
+        for (int percentile : new int[] {1, 50, 90, 99}) {
+            long exact = percentile * 10000L;
+            long value = histogram.getPercentile(percentile);
+            assertTrue("p" + percentile + " " + value, value >= exact && value < exact * 1.125);
+        }
+        assertEquals(1000000, histogram.getPercentile(100));
+        // the lowest value is still given by the upper bound of its bucket
+        assertEquals(IntervalHistogram.upperBoundOf(IntervalHistogram.bucketOf(1000)), histogram.getPercentile(0));
+    }
+
+    @Test
+    public void testPercentileIsCappedAtTheMax() {
+        IntervalHistogram histogram = new IntervalHistogram();
+        histogram.record(1000);
+        assertEquals(1000, histogram.getPercentile(50));
+        assertEquals(1000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testNegativeValuesCountAsZero() {
+        IntervalHistogram histogram = new IntervalHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void testResetAndCopy() {
+        IntervalHistogram histogram = new IntervalHistogram();
+        assertEquals(0, histogram.getPercentile(50));
+        histogram.record(300);
+        histogram.record(700);
+
+        IntervalHistogram copy = new IntervalHistogram();
+        copy.record(5);
+        histogram.copyTo(copy);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(50));
+
+        assertEquals(2, copy.getCount());
+        assertEquals(700, copy.getMax());
+        assertEquals(500, copy.getMean(), 0.001);
+        assertEquals(IntervalHistogram.upperBoundOf(IntervalHistogram.bucketOf(300)), copy.getPercentile(50));
+    }
+}
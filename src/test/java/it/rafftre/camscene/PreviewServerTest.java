@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class PreviewServerTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    private PreviewServer server;
+    private PreviewServer.Stream stream;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new PreviewServer(0);
+        server.start();
+        stream = server.openStream("cam");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void testIndexListsTheCameras() throws IOException {
+        HttpURLConnection connection = open("/");
+        assertEquals(200, connection.getResponseCode());
+        String page = new String(readAll(connection.getInputStream()), StandardCharsets.UTF_8);
+        assertTrue(page, page.contains("<a href=\"/camera/cam\">cam</a>"));
+
+        assertEquals(404, open("/camera/none").getResponseCode());
+    }
+
+    @Test(timeout = 10000)
+    public void testStreamsJpegParts() throws Exception {
+        HttpURLConnection connection = open("/camera/cam");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("multipart/x-mixed-replace; boundary=frame", connection.getContentType());
+        InputStream in = connection.getInputStream();
+
+        // the frames are offered only once the client is connected
+        Thread capture = startOffering(new Random(1), 20);
+        try {
+            for (int part = 0; part < 2; part++) {
+                assertEquals("--frame", readLine(in));
+                assertEquals("Content-Type: image/jpeg", readLine(in));
+                String length = readLine(in);
+                assertTrue(length, length.startsWith("Content-Length: "));
+                assertEquals("", readLine(in));
+
+                byte[] jpeg = new byte[Integer.parseInt(length.substring("Content-Length: ".length()))];
+                readFully(in, jpeg);
+                assertEquals(0xff, jpeg[0] & 0xff);
+                assertEquals(0xd8, jpeg[1] & 0xff);
+                BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+                assertNotNull(image);
+                assertEquals(WIDTH, image.getWidth());
+                assertEquals(HEIGHT, image.getHeight());
+                assertEquals("", readLine(in));
+            }
+        } finally {
+            capture.interrupt();
+            capture.join();
+            connection.disconnect();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testSlowClientDropsFrames() throws Exception {
+        // a client that never reads: its socket fills up, then its queue
+        try (Socket client = new Socket()) {
+            client.setReceiveBufferSize(4096);
+            client.connect(new InetSocketAddress("localhost", server.getPort()));
+            OutputStream out = client.getOutputStream();
+            out.write("GET /camera/cam HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            Random random = new Random(2);
+            ByteBuffer frame = ByteBuffer.allocate(WIDTH * HEIGHT * 3);
+            long deadline = System.nanoTime() + 20 * Util.ONE_SECOND_IN_NANOS;
+            long maxOfferNanos = 0;
+            long dropped = 0;
+            while (dropped == 0 && System.nanoTime() < deadline) {
+                random.nextBytes(frame.array());
+                long start = System.nanoTime();
+                stream.offer(frame, WIDTH, HEIGHT);
+                maxOfferNanos = Math.max(maxOfferNanos, System.nanoTime() - start);
+                Thread.sleep(5);
+                dropped = getDroppedFrames();
+            }
+
+            assertTrue("no frame dropped", dropped > 0);
+            assertTrue("offer took " + maxOfferNanos / 1000000 + " ms", maxOfferNanos < 100 * 1000000L);
+        }
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        return (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path).openConnection();
+    }
+
+    /**
+     * The frames dropped for the clients of the stream, as listed by <code>/stats</code>.
+     */
+    private long getDroppedFrames() throws IOException {
+        String stats = new String(readAll(open("/stats").getInputStream()), StandardCharsets.UTF_8);
+        long dropped = 0;
+        Matcher matcher = Pattern.compile("^  .* (\\d+) dropped$", Pattern.MULTILINE).matcher(stats);
+        while (matcher.find()) {
+            dropped += Long.parseLong(matcher.group(1));
+        }
+        return dropped;
+    }
+
+    private Thread startOffering(final Random random, final long periodMillis) {
+        Thread thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                ByteBuffer frame = ByteBuffer.allocate(WIDTH * HEIGHT * 3);
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        random.nextBytes(frame.array());
+                        stream.offer(frame, WIDTH, HEIGHT);
+                        Thread.sleep(periodMillis);
+                    }
+                } catch (InterruptedException e) {
+                    // stopped
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int c; (c = in.read()) != '\n'; ) {
+            if (c < 0) {
+                throw new IOException("End of stream.");
+            }
+            if (c != '\r') {
+                sb.append((char) c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void readFully(InputStream in, byte[] data) throws IOException {
+        for (int read = 0; read < data.length; ) {
+            int count = in.read(data, read, data.length - read);
+            if (count < 0) {
+                throw new IOException("End of stream.");
+            }
+            read += count;
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int count; (count = input.read(buffer)) >= 0; ) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        }
+    }
+}
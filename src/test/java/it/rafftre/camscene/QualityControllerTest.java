@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class QualityControllerTest {
+
+    private static final long SECOND = Util.ONE_SECOND_IN_NANOS;
+
+    private FrameMailbox mailbox;
+    private CameraStats stats;
+    private QualityController quality;
+    private long now;
+
+    @Before
+    public void setUp() {
+        mailbox = new FrameMailbox();
+        stats = new CameraStats("cam", mailbox, new FramePacer(25, false), new FeedAnalyzer("cam"));
+        quality = new QualityController("cam", stats, mailbox);
+        now = SECOND;
+        assertEquals(QualityController.Level.FULL, quality.evaluate(now));
+    }
+
+    @Test
+    public void testLowersTheLevelStepByStep() {
+        QualityController.Level[] levels = QualityController.Level.values();
+        for (int i = 1; i < levels.length; i++) {
+            for (int window = 1; window < QualityController.DOWN_WINDOWS; window++) {
+                assertEquals(levels[i - 1], second(0.9, 0));
+            }
+            assertEquals(levels[i], second(0.9, 0));
+
+            // held, and not counted, even if still overloaded
+            for (int window = 0; window < QualityController.HOLD_WINDOWS; window++) {
+                assertEquals(levels[i], second(0.9, 0));
+            }
+        }
+
+        // no level below the lowest
+        for (int window = 0; window < 10; window++) {
+            assertEquals(QualityController.Level.REDUCED_RATE, second(0.9, 0));
+        }
+    }
+
+    @Test
+    public void testASingleOverloadedSecondIsTolerated() {
+        for (int window = 0; window < 10; window++) {
+            second(0.9, 0);
+            assertEquals(QualityController.Level.FULL, second(0.3, 0.2));
+        }
+    }
+
+    @Test
+    public void testRendersTooSlow() {
+        second(0.1, 0.6);
+        assertEquals(QualityController.Level.REDUCED_SIZE, second(0.1, 0.6));
+    }
+
+    @Test
+    public void testTooManyFramesReplaced() {
+        for (int window = 0; window < QualityController.DOWN_WINDOWS; window++) {
+            post(10, 5);
+            second(0.1, 0.1);
+        }
+        assertEquals(QualityController.Level.REDUCED_SIZE, quality.getLevel());
+    }
+
+    @Test
+    public void testFramesWaitingTooLong() {
+        for (int window = 0; window < QualityController.DOWN_WINDOWS; window++) {
+            stats.getHandoffTimer().record(0, QualityController.MAX_HANDOFF_NANOS * 2);
+            second(0.1, 0.1);
+        }
+        assertEquals(QualityController.Level.REDUCED_SIZE, quality.getLevel());
+    }
+
+    @Test
+    public void testRaisesTheLevelWithHeadroom() {
+        lowerTo(QualityController.Level.REDUCED_SIZE);
+
+        // a render load four times as large at full size would be too much
+        for (int window = 0; window < 20; window++) {
+            assertEquals(QualityController.Level.REDUCED_SIZE, second(0.1, 0.2));
+        }
+
+        for (int window = 1; window < QualityController.UP_WINDOWS; window++) {
+            assertEquals(QualityController.Level.REDUCED_SIZE, second(0.1, 0.05));
+        }
+        assertEquals(QualityController.Level.FULL, second(0.1, 0.05));
+    }
+
+    @Test
+    public void testWaitsForAWholeSecond() {
+        // half a second is not a window: the whole second is the first overloaded one
+        record(stats.getConvertTimer(), 0.9 * SECOND);
+        now += SECOND / 2;
+        assertEquals(QualityController.Level.FULL, quality.evaluate(now));
+        now += SECOND / 2;
+        assertEquals(QualityController.Level.FULL, quality.evaluate(now));
+        assertEquals(QualityController.Level.REDUCED_SIZE, second(0.9, 0));
+    }
+
+    @Test
+    public void testRestartForgetsTheOverloadedSeconds() {
+        second(0.9, 0);
+        quality.restart();
+        now += 10 * SECOND;
+        assertEquals(QualityController.Level.FULL, quality.evaluate(now));
+        assertEquals(QualityController.Level.FULL, second(0.9, 0));
+        assertEquals(QualityController.Level.REDUCED_SIZE, second(0.9, 0));
+    }
+
+    private void lowerTo(QualityController.Level level) {
+        while (quality.getLevel() != level) {
+            second(0.9, 0);
+        }
+        for (int window = 0; window < QualityController.HOLD_WINDOWS; window++) {
+            second(0.3, 0);
+        }
+    }
+
+    /**
+     * Spends the given shares of a second converting and rendering, and evaluates the second.
+     */
+    private QualityController.Level second(double convertLoad, double renderLoad) {
+        record(stats.getConvertTimer(), convertLoad * SECOND);
+        record(stats.getRenderTimer(), renderLoad * SECOND);
+        now += SECOND;
+        return quality.evaluate(now);
+    }
+
+    private static void record(StageTimer timer, double nanos) {
+        if (nanos > 0) {
+            timer.record(0, (long) nanos);
+        }
+    }
+
+    private void post(int frames, int replaced) {
+        Frame frame = new Frame(null, 1, 1, RenderMode.DIRECT);
+        for (int i = 0; i < frames; i++) {
+            mailbox.post(frame);
+            if (i >= replaced) {
+                mailbox.take();
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2015 Raffaele Tretola
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package it.rafftre.camscene;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReplayBufferTest {
+
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 6;
+    private static final int FRAME_SIZE = WIDTH * HEIGHT * 3;
+
+    @Test
+    public void testIsEmptyBeforeTheFirstFrame() {
+        ReplayBuffer replay = new ReplayBuffer(4 * FRAME_SIZE);
+        assertEquals(0, replay.getCapacity());
+        assertEquals(-1, replay.getNewest());
+        assertEquals(0, replay.getOldest());
+        assertFalse(replay.read(0, new Collector()));
+        assertEquals(-1, replay.getTimestamp(0));
+    }
+
+    @Test
+    public void testOverwritesTheOldestFrames() {
+        ReplayBuffer replay = new ReplayBuffer(4 * FRAME_SIZE);
+        for (int i = 0; i < 10; i++) {
+            replay.add(frame(WIDTH, HEIGHT, i), WIDTH, HEIGHT, 1000 + i);
+        }
+
+        assertEquals(4, replay.getCapacity());
+        assertEquals(9, replay.getNewest());
+        // the slot after the newest frame is the next to be overwritten
+        assertEquals(7, replay.getOldest());
+        for (long sequence = 0; sequence < 6; sequence++) {
+            assertFalse("frame " + sequence, replay.read(sequence, new Collector()));
+            assertEquals(-1, replay.getTimestamp(sequence));
+        }
+        for (long sequence = 6; sequence < 10; sequence++) {
+            assertFrame(replay, sequence, WIDTH, HEIGHT, (int) sequence);
+        }
+        assertFalse(replay.read(10, new Collector()));
+    }
+
+    @Test
+    public void testKeepsAtLeastTwoFrames() {
+        ReplayBuffer replay = new ReplayBuffer(1);
+        replay.add(frame(WIDTH, HEIGHT, 0), WIDTH, HEIGHT, 1000);
+        replay.add(frame(WIDTH, HEIGHT, 1), WIDTH, HEIGHT, 1001);
+        replay.add(frame(WIDTH, HEIGHT, 2), WIDTH, HEIGHT, 1002);
+        assertEquals(2, replay.getCapacity());
+        assertEquals(2, replay.getOldest());
+        assertFrame(replay, 2, WIDTH, HEIGHT, 2);
+    }
+
+    @Test
+    public void testDropsTheFramesOfAnotherSize() {
+        ReplayBuffer replay = new ReplayBuffer(4 * FRAME_SIZE);
+        for (int i = 0; i < 3; i++) {
+            replay.add(frame(WIDTH, HEIGHT, i), WIDTH, HEIGHT, 1000 + i);
+        }
+        assertEquals(0, replay.getOldest());
+
+        replay.add(frame(4, 4, 3), 4, 4, 1003);
+        assertEquals(4 * FRAME_SIZE / (4 * 4 * 3), replay.getCapacity());
+        assertEquals(3, replay.getNewest());
+        assertEquals(3, replay.getOldest());
+        for (long sequence = 0; sequence < 3; sequence++) {
+            assertFalse("frame " + sequence, replay.read(sequence, new Collector()));
+        }
+        assertFrame(replay, 3, 4, 4, 3);
+    }
+
+    @Test
+    public void testClearDropsEveryFrame() {
+        ReplayBuffer replay = new ReplayBuffer(4 * FRAME_SIZE);
+        replay.add(frame(WIDTH, HEIGHT, 0), WIDTH, HEIGHT, 1000);
+        replay.add(frame(WIDTH, HEIGHT, 1), WIDTH, HEIGHT, 1001);
+        replay.clear();
+        assertEquals(0, replay.getCapacity());
+        assertEquals(2, replay.getOldest());
+        assertFalse(replay.read(1, new Collector()));
+
+        // the sequence goes on
+        replay.add(frame(WIDTH, HEIGHT, 2), WIDTH, HEIGHT, 1002);
+        assertEquals(2, replay.getNewest());
+        assertEquals(2, replay.getOldest());
+        assertFrame(replay, 2, WIDTH, HEIGHT, 2);
+    }
+
+    private static void assertFrame(ReplayBuffer replay, long sequence, int width, int height, int seed) {
+        Collector collector = new Collector();
+        assertTrue("frame " + sequence, replay.read(sequence, collector));
+        assertEquals(width, collector.width);
+        assertEquals(height, collector.height);
+        assertEquals(1000 + seed, collector.timestamp);
+        assertEquals(1000 + seed, replay.getTimestamp(sequence));
+        assertArrayEquals("frame " + sequence, frame(width, height, seed).array(), collector.data);
+    }
+
+    private static ByteBuffer frame(int width, int height, int seed) {
+        byte[] data = new byte[width * height * 3];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (seed * 31 + i);
+        }
+        return ByteBuffer.wrap(data);
+    }
+
+    private static final class Collector implements ReplayBuffer.Reader {
+
+        byte[] data;
+        int width;
+        int height;
+        long timestamp;
+
+        @Override
+        public void read(ByteBuffer rgbData, int width, int height, long timestamp) {
+            data = new byte[rgbData.remaining()];
+            rgbData.get(data);
+            this.width = width;
+            this.height = height;
+            this.timestamp = timestamp;
+        }
+    }
+}